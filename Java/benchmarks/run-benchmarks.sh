@@ -0,0 +1,42 @@
+#!/bin/sh
+# Runs the JMH benchmarks over a range of thread counts and producer:consumer
+# ratios, with the GC and perf-normalized profilers, and writes one JSON file
+# per run into results/<label>/, where the label defaults to the current
+# commit. Two versions are compared by diffing their result directories, or by
+# loading both into https://jmh.morethan.io.
+#
+#   mvn -B package                       (from the Java directory)
+#   benchmarks/run-benchmarks.sh [label] [extra JMH options]
+#
+# THREADS and RATIOS override the thread counts and the producer:consumer
+# ratios. The perfnorm profiler needs Linux perf; set PROFILERS="-prof gc"
+# where it is not available.
+
+set -e
+
+cd "$(dirname "$0")"
+JAR=target/benchmarks.jar
+LABEL=${1:-$(git rev-parse --short HEAD)}
+[ $# -gt 0 ] && shift
+THREADS=${THREADS:-"1 2 4 8"}
+RATIOS=${RATIOS:-"1,1 1,3 3,1"}
+PROFILERS=${PROFILERS:-"-prof gc -prof perfnorm"}
+OUT=results/$LABEL
+
+mkdir -p "$OUT"
+
+# Benchmarks where every thread runs the same operation: the thread count is -t
+for t in $THREADS; do
+    java -jar $JAR 'CounterBenchmark|LinkedListBenchmark.set' \
+        -t "$t" $PROFILERS -rf json -rff "$OUT/shared-t$t.json" "$@"
+done
+
+# Producer/consumer groups: -tg is the ratio, -t the total number of threads
+# (a multiple of the group size), so every ratio runs with 1 and 2 groups
+for r in $RATIOS; do
+    size=$(( ${r%,*} + ${r#*,} ))
+    for groups in 1 2; do
+        java -jar $JAR 'LinkedListBenchmark.queue|StackBenchmark|AllProducersAllConsumersBenchmark|ProducerConsumerBenchmark' \
+            -tg "$r" -t $(( size * groups )) $PROFILERS -rf json -rff "$OUT/groups-${r%,*}to${r#*,}-x$groups.json" "$@"
+    done
+done
@@ -0,0 +1,53 @@
+package Ex2_CounterThreads;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the {@link CounterThreads.Counter} implementations, with all
+ * the benchmark threads ({@code -t}) incrementing one shared counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CounterBenchmark {
+
+    @Param({ "lock", "cas", "striped", "batched" })
+    public String kind;
+
+    private CounterThreads.Counter counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        counter = CounterThreads.newCounter(kind);
+    }
+
+    @Benchmark
+    public void inc() {
+        counter.inc();
+    }
+
+    /**
+     * Increments and reads back the count, which costs the striped counters a
+     * sum over their cells.
+     */
+    @Benchmark
+    public long incAndGet() {
+        counter.inc();
+        return counter.getCount();
+    }
+}
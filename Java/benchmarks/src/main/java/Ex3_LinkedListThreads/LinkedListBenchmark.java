@@ -0,0 +1,110 @@
+package Ex3_LinkedListThreads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the lock-free queue and of the sorted list sets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LinkedListBenchmark {
+
+    /**
+     * A {@link LockFreeQueue} shared by the producers and consumers of a
+     * group. It is unbounded, so it is renewed at each iteration to keep what
+     * faster producers leave behind from piling up.
+     */
+    @State(Scope.Group)
+    public static class QueueState {
+
+        LockFreeQueue<Integer> queue;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            queue = new LockFreeQueue<>();
+        }
+    }
+
+    /**
+     * A {@link SortedListSet} shared by all the threads, filled with half of
+     * its key range.
+     */
+    @State(Scope.Benchmark)
+    public static class SetState {
+
+        @Param({ "handoverhand", "optimistic", "lazy" })
+        public String kind;
+
+        @Param({ "50", "90", "99" })
+        public int containsPercent;
+
+        @Param({ "1024" })
+        public int range;
+
+        SortedListSet set;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            set = SortedListSet.create(kind);
+            for (int i = 0; i < range; i += 2) {
+                set.add(i);
+            }
+        }
+    }
+
+    /**
+     * Producers offer elements; the ratio of producers to consumers is set
+     * with {@code -tg producers,consumers}.
+     */
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void offer(QueueState state) {
+        state.queue.offer(1);
+    }
+
+    /**
+     * Consumers poll elements, getting null when the queue is empty rather
+     * than waiting, so a group never blocks.
+     */
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public Integer poll(QueueState state) {
+        return state.queue.poll();
+    }
+
+    /**
+     * A mix of contains, add and remove of random keys: containsPercent
+     * lookups, and the rest split evenly between additions and removals so the
+     * size of the set stays around half of the range.
+     */
+    @Benchmark
+    public boolean set(SetState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int value = random.nextInt(state.range);
+        int op = random.nextInt(100);
+        if (op < state.containsPercent) {
+            return state.set.contains(value);
+        }
+        return op % 2 == 0 ? state.set.add(value) : state.set.remove(value);
+    }
+}
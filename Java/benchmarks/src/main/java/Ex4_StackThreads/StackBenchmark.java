@@ -0,0 +1,97 @@
+package Ex4_StackThreads;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the lock-based stack and of the Treiber stack, with pushing
+ * and popping threads in a JMH group (ratio set with
+ * {@code -tg pushers,poppers}), and with batches moved by pushAll and popN.
+ * <p>
+ * The lock-based stack logs every push and pop to the EventLog: the standard
+ * output is replaced by a null stream, so the measure includes logging the
+ * events but no I/O ({@code -jvmArgsAppend -Dlog=off} leaves them out).
+ * The lock-based stack checks its emptiness on the shared instance
+ * {@link StackThreads#s}, so all the groups use that one stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StackBenchmark {
+
+    @Param({ "lock", "lockfree" })
+    public String kind;
+
+    @Param({ "16" })
+    public int batchSize;
+
+    private List<Object> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(i);
+        }
+    }
+
+    // The stack is renewed at each iteration, so what faster pushers leave
+    // behind does not pile up
+    @Setup(Level.Iteration)
+    public void newStack() {
+        StackThreads.s = kind.equals("lockfree") ? new TreiberStack<>() : new StackThreads.Stack();
+    }
+
+    @Benchmark
+    @Group("pushPop")
+    @GroupThreads(1)
+    public void push() {
+        StackThreads.s.push(1);
+    }
+
+    /**
+     * Pops with a timeout, so a popper left alone at the end of an iteration
+     * does not wait forever.
+     */
+    @Benchmark
+    @Group("pushPop")
+    @GroupThreads(1)
+    public Object pop() throws InterruptedException {
+        return StackThreads.s.pop(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(1)
+    public void pushAll() {
+        StackThreads.s.pushAll(batch);
+    }
+
+    @Benchmark
+    @Group("batch")
+    @GroupThreads(1)
+    public List<Object> popN() {
+        return StackThreads.s.popN(batchSize);
+    }
+}
@@ -0,0 +1,141 @@
+package Ex5_AllProducersAllConsumers;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the all-producers-all-consumers queues, each benchmarked as a
+ * JMH group of producers and consumers (ratio set with
+ * {@code -tg producers,consumers}, number of groups with {@code -t}):
+ * <ul>
+ * <li>{@code turns}: the alternating turns of {@link AllProducersAllConsumersV1}</li>
+ * <li>{@code tickets}: the producer and consumer tickets of
+ * {@link AllProducersAllConsumersV2}, moving 9 elements per operation</li>
+ * <li>{@code sharded}: the {@link ShardedQueue}</li>
+ * </ul>
+ * The queues of V1 and V2 log every element to the EventLog: the standard
+ * output is replaced by a null stream, so the measure includes logging the
+ * events but no I/O ({@code -jvmArgsAppend -Dlog=off} leaves them out).
+ * The operations block, so when an iteration ends one side may wait forever
+ * for the other, which has stopped: JMH interrupts it after the timeout.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 5)
+@Fork(2)
+public class AllProducersAllConsumersBenchmark {
+
+    private static final Date DATE = new Date();
+
+    /**
+     * The queue of V1, shared by all the groups.
+     */
+    @State(Scope.Benchmark)
+    public static class TurnsState {
+
+        @Param({ "1", "10" })
+        public int batchSize;
+
+        AllProducersAllConsumersV1.MyQueue queue;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            queue = new AllProducersAllConsumersV1.MyQueue(batchSize);
+        }
+    }
+
+    /**
+     * The sharded queue, shared by all the groups.
+     */
+    @State(Scope.Benchmark)
+    public static class ShardedState {
+
+        @Param({ "16", "1024" })
+        public int capacity;
+
+        // 0 for one shard per processor
+        @Param({ "0" })
+        public int shards;
+
+        ShardedQueue<Date> queue;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            queue = shards == 0 ? new ShardedQueue<>(capacity) : new ShardedQueue<>(shards, capacity);
+        }
+    }
+
+    /**
+     * The queue of V2 is static, with a fixed capacity of 1000.
+     */
+    @State(Scope.Benchmark)
+    public static class TicketsState {
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    @Benchmark
+    @Group("turns")
+    @GroupThreads(1)
+    public void turnsProduce(TurnsState state) throws InterruptedException {
+        state.queue.addEl(DATE);
+    }
+
+    @Benchmark
+    @Group("turns")
+    @GroupThreads(1)
+    public void turnsConsume(TurnsState state) throws InterruptedException {
+        state.queue.removeEl();
+    }
+
+    @Benchmark
+    @Group("tickets")
+    @GroupThreads(1)
+    public void ticketsProduce(TicketsState state) throws InterruptedException {
+        AllProducersAllConsumersV2.q.addEl(DATE);
+    }
+
+    @Benchmark
+    @Group("tickets")
+    @GroupThreads(1)
+    public void ticketsConsume(TicketsState state) throws InterruptedException {
+        AllProducersAllConsumersV2.q.removeEl();
+    }
+
+    @Benchmark
+    @Group("sharded")
+    @GroupThreads(1)
+    public void shardedProduce(ShardedState state) throws InterruptedException {
+        state.queue.put(DATE);
+    }
+
+    @Benchmark
+    @Group("sharded")
+    @GroupThreads(1)
+    public Date shardedConsume(ShardedState state) throws InterruptedException {
+        return state.queue.take();
+    }
+}
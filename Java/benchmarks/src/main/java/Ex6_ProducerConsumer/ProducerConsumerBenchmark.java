@@ -0,0 +1,109 @@
+package Ex6_ProducerConsumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import Overflow.AdaptiveCapacity;
+import Overflow.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the {@link ProducerConsumer.BoundedBuffer} implementations,
+ * with producers adding and consumers removing messages of a given size.
+ * <p>
+ * The producers and consumers run in a JMH group, one of each by default; the
+ * ratio is set on the command line with {@code -tg producers,consumers} and
+ * the number of groups with {@code -t}, all the groups sharing one queue. The
+ * results give the rate of each side and of the whole group.
+ * <p>
+ * The operations block, so when an iteration ends one side may wait forever
+ * for the other, which has stopped: JMH interrupts it after the timeout. The
+ * journal queue is unbounded, so with more producers than consumers its
+ * backlog grows on disk during the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Timeout(time = 5)
+@Fork(2)
+public class ProducerConsumerBenchmark {
+
+    @Param({ "lock", "twolock", "ring", "offheap", "journal" })
+    public String kind;
+
+    @Param({ "16", "1024" })
+    public int capacity;
+
+    @Param({ "1", "64", "1024" })
+    public int payloadSize;
+
+    private ProducerConsumer.BoundedBuffer<String> queue;
+    private String payload;
+    private File journalDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ProducerConsumer.verbose = false;
+        payload = "x".repeat(payloadSize);
+        queue = switch (kind) {
+            case "lock" -> new ProducerConsumer.MyQueue(new AdaptiveCapacity("ProducerConsumer", capacity),
+                    OverflowPolicy.BLOCK);
+            case "twolock" -> new TwoLockQueue<>(capacity);
+            case "ring" -> new RingBufferQueue<>(capacity, RingBufferQueue.WaitStrategy.YIELD);
+            // Room for capacity messages of the payload size (ASCII, so one byte per character)
+            case "offheap" -> new OffHeapQueue(capacity * (Integer.BYTES + (payloadSize + 3) / 4 * 4));
+            // Unbounded: the capacity does not apply
+            case "journal" -> {
+                journalDirectory = Files.createTempDirectory("journal").toFile();
+                yield new JournalQueue(journalDirectory, 16 << 20, 64);
+            }
+            default -> throw new IllegalArgumentException("Unknown queue kind: " + kind);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (queue instanceof JournalQueue journal) {
+            journal.close();
+            File[] files = journalDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            journalDirectory.delete();
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public void produce() throws InterruptedException {
+        queue.addElement(payload);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public String consume() throws InterruptedException {
+        return queue.removeElement();
+    }
+}
@@ -0,0 +1,296 @@
+package EventLog;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logging of the events of the exercises (an element added, a
+ * pop, ...), so that nothing is printed while a lock is held.
+ * <p>
+ * Logging an event inside a critical section only stores a few fields in a
+ * preallocated ring: the time, the id of the thread, the event, a size and an
+ * argument (usually the element). A background writer thread drains the rings
+ * about every millisecond, orders the events by time, formats them and prints
+ * them in one batch. The console I/O thus happens outside of the locks, and
+ * on one thread only.
+ * <p>
+ * The level is set with {@code -Dlog=off|info|debug} ({@code info} by
+ * default). The call sites test the {@link #INFO} or {@link #DEBUG} constant
+ * before logging, so that with a lower level the JIT compiler removes the
+ * calls altogether. With {@code -Dlog.details=true}, each line is prefixed
+ * with the time in microseconds since the start, the thread id, the event
+ * name and the size.
+ * <p>
+ * A thread logs into the ring chosen by its id, so threads on different rings
+ * never contend. There is a fixed number of rings rather than one per thread,
+ * so the memory used stays bounded with millions of (virtual) threads; threads
+ * sharing a ring claim its slots with a compare-and-swap. When a ring is full
+ * (the console cannot keep up), the event is dropped rather than making the
+ * thread wait, and the number of dropped events is printed.
+ */
+public final class EventLog {
+
+    /**
+     * The log levels, from the quietest.
+     */
+    public enum Level {
+        OFF, INFO, DEBUG
+    }
+
+    /**
+     * The level set with {@code -Dlog}.
+     */
+    public static final Level LEVEL = Level.valueOf(System.getProperty("log", "info").toUpperCase(Locale.ROOT));
+
+    /**
+     * Whether the info events are logged.
+     */
+    public static final boolean INFO = LEVEL.compareTo(Level.INFO) >= 0;
+
+    /**
+     * Whether the debug events are logged.
+     */
+    public static final boolean DEBUG = LEVEL.compareTo(Level.DEBUG) >= 0;
+
+    private static final boolean DETAILS = Boolean.getBoolean("log.details");
+
+    /**
+     * Number of events per ring ({@code -Dlog.buffer}), rounded up to a power
+     * of two.
+     */
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("log.buffer", 4096)) - 1) << 1;
+
+    private static final int RINGS = Math.min(16,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+    private static final long FLUSH_PERIOD_NANOS = 1_000_000;
+
+    private static final long START = System.nanoTime();
+
+    private static final Ring[] rings = new Ring[RINGS];
+
+    // Serializes the draining by the writer thread and by flush
+    private static final Object writeLock = new Object();
+
+    private static final AtomicLong dropped = new AtomicLong();
+    private static long reportedDropped;
+
+    static {
+        for (int i = 0; i < RINGS; i++) {
+            rings[i] = new Ring(CAPACITY);
+        }
+        if (INFO) {
+            Thread writer = new Thread(EventLog::write, "event-log");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(EventLog::flush));
+        }
+    }
+
+    private EventLog() {
+    }
+
+    /**
+     * Turns the fields of an event into text. It runs on the writer thread,
+     * so it can be as slow as needed.
+     */
+    @FunctionalInterface
+    public interface Format {
+
+        /**
+         * Appends the text of an event.
+         *
+         * @param sb       the line being built
+         * @param threadId the id of the thread that logged the event
+         * @param size     the size logged with the event
+         * @param arg      the argument logged with the event
+         */
+        void format(StringBuilder sb, long threadId, int size, Object arg);
+    }
+
+    /**
+     * A kind of event, created once per call site.
+     *
+     * @param name   the name of the event, printed with {@code -Dlog.details=true}
+     * @param format how the event is printed
+     */
+    public record Event(String name, Format format) {
+    }
+
+    /**
+     * Logs an event without waiting and without allocating. The call must be
+     * guarded by {@link #INFO} or {@link #DEBUG}.
+     *
+     * @param event the kind of event
+     * @param size  a size to log, such as the size of the queue, or -1
+     * @param arg   an argument to log, such as the element; it is formatted
+     *              later, so it must not change
+     */
+    public static void log(Event event, int size, Object arg) {
+        long threadId = Thread.currentThread().threadId();
+        if (!rings[(int) threadId & (RINGS - 1)].offer(System.nanoTime(), threadId, event, size, arg)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints all the events logged so far. Called before printing directly
+     * to the console, so the output stays in order.
+     */
+    public static void flush() {
+        if (INFO) {
+            synchronized (writeLock) {
+                drain(System.out);
+            }
+        }
+    }
+
+    /**
+     * Body of the writer thread: drains the rings about every millisecond.
+     */
+    private static void write() {
+        while (true) {
+            boolean empty;
+            synchronized (writeLock) {
+                empty = !drain(System.out);
+            }
+            if (empty) {
+                LockSupport.parkNanos(FLUSH_PERIOD_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Drains all the rings, then prints their events in time order.
+     *
+     * @return false if there was no event
+     */
+    private static boolean drain(PrintStream out) {
+        List<Entry> entries = new ArrayList<>();
+        for (Ring ring : rings) {
+            ring.drainTo(entries);
+        }
+        long lost = dropped.get() - reportedDropped;
+        if (entries.isEmpty() && lost == 0) {
+            return false;
+        }
+        entries.sort(Comparator.comparingLong(Entry::time));
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : entries) {
+            if (DETAILS) {
+                sb.append(String.format("%12.1f %6d %-32s %6d  ", (e.time() - START) / 1000.0, e.threadId(),
+                        e.event().name(), e.size()));
+            }
+            e.event().format().format(sb, e.threadId(), e.size(), e.arg());
+            sb.append(System.lineSeparator());
+        }
+        if (lost > 0) {
+            sb.append(lost).append(" events dropped, the log could not keep up").append(System.lineSeparator());
+            reportedDropped += lost;
+        }
+        out.print(sb);
+        out.flush();
+        return true;
+    }
+
+    /**
+     * An event read from a ring.
+     */
+    private record Entry(long time, long threadId, Event event, int size, Object arg) {
+    }
+
+    /**
+     * A bounded multi-producer, single-consumer ring of events, each field in
+     * its own preallocated array.
+     * <p>
+     * As in the ring buffer queue of Ex6, each slot carries a sequence number:
+     * it equals the claim position when the slot is free for that lap, and
+     * the position plus one once the event is published.
+     */
+    private static final class Ring {
+
+        private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+        private final long[] sequences;
+        private final long[] times;
+        private final long[] threadIds;
+        private final Event[] events;
+        private final int[] sizes;
+        private final Object[] args;
+        private final int mask;
+
+        private final AtomicLong tail = new AtomicLong();
+
+        // Only read and written by the draining thread, under writeLock
+        private long head;
+
+        Ring(int capacity) {
+            sequences = new long[capacity];
+            times = new long[capacity];
+            threadIds = new long[capacity];
+            events = new Event[capacity];
+            sizes = new int[capacity];
+            args = new Object[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                sequences[i] = i;
+            }
+        }
+
+        /**
+         * Stores an event in the next free slot.
+         *
+         * @return false if the ring is full
+         */
+        boolean offer(long time, long threadId, Event event, int size, Object arg) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) position & mask;
+                long difference = (long) SEQUENCES.getAcquire(sequences, index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        times[index] = time;
+                        threadIds[index] = threadId;
+                        events[index] = event;
+                        sizes[index] = size;
+                        args[index] = arg;
+                        // Publish the fields to the draining thread
+                        SEQUENCES.setRelease(sequences, index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        /**
+         * Moves the published events to a list, in the order of the ring, and
+         * frees their slots.
+         */
+        void drainTo(List<Entry> entries) {
+            while (true) {
+                int index = (int) head & mask;
+                if ((long) SEQUENCES.getAcquire(sequences, index) != head + 1) {
+                    return;
+                }
+                entries.add(new Entry(times[index], threadIds[index], events[index], sizes[index], args[index]));
+                events[index] = null;
+                args[index] = null;
+                // Hand the slot back to the producers of the next lap
+                SEQUENCES.setRelease(sequences, index, head + mask + 1);
+                head++;
+            }
+        }
+    }
+}
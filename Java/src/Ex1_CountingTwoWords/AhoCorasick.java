@@ -0,0 +1,274 @@
+package Ex1_CountingTwoWords;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Aho-Corasick automaton that counts whole-word occurrences of many terms
+ * in a single pass over the input.
+ * <p>
+ * The automaton is built once from the term dictionary and can then be shared
+ * by any number of threads, each scanning with its own {@link Matcher}. The
+ * input is normalized on the fly: runs of delimiters become one space, ASCII
+ * letters can be folded to lower case and ASCII punctuation can be dropped.
+ * Every term is matched as " term " so only whole words count, and a term
+ * made of several words (for example "White Rabbit") matches as a phrase.
+ * <p>
+ * The transitions form a complete table over the bytes used by the terms, so
+ * scanning costs one table lookup per byte whatever the number of terms.
+ */
+final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    private final String[] terms;
+    private final int[] termStates;
+
+    // Class of each raw input byte, -1 for a byte that is dropped
+    private final int[] byteClasses = new int[256];
+    private final int spaceClass;
+    private final int classCount;
+
+    private final int stateCount;
+    private final int[] next;
+    private final int[] fail;
+    private final int[] bfsOrder;
+
+    /**
+     * Builds the automaton for the given terms.
+     *
+     * @param terms            the terms to count
+     * @param foldCase         true to ignore the case of ASCII letters
+     * @param stripPunctuation true to ignore ASCII punctuation
+     * @throws IllegalArgumentException if a term is empty once normalized
+     */
+    AhoCorasick(Collection<String> terms, boolean foldCase, boolean stripPunctuation) {
+        this.terms = terms.toArray(new String[0]);
+        this.termStates = new int[this.terms.length];
+
+        // Normalize each raw byte once: -1 = dropped, otherwise the byte to match
+        int[] normalized = new int[256];
+        for (int b = 0; b < 256; b++) {
+            normalized[b] = normalize((byte) b, foldCase, stripPunctuation);
+        }
+
+        // Normalize the terms and give a class to every byte they use
+        List<byte[]> patterns = new ArrayList<>();
+        int[] classOfByte = new int[256];
+        classOfByte[' '] = 1;
+        int classes = 2; // class 0 stands for every byte absent from the terms
+        for (String term : this.terms) {
+            byte[] pattern = normalizeTerm(term, normalized);
+            for (byte b : pattern) {
+                if (classOfByte[b & 0xFF] == 0) {
+                    classOfByte[b & 0xFF] = classes++;
+                }
+            }
+            patterns.add(pattern);
+        }
+        this.spaceClass = classOfByte[' '];
+        this.classCount = classes;
+        for (int b = 0; b < 256; b++) {
+            byteClasses[b] = normalized[b] < 0 ? -1 : classOfByte[normalized[b]];
+        }
+
+        // Build the trie
+        int capacity = 1;
+        for (byte[] pattern : patterns) {
+            capacity += pattern.length;
+        }
+        int[] trie = new int[capacity * classCount];
+        Arrays.fill(trie, -1);
+        int states = 1;
+        for (int t = 0; t < patterns.size(); t++) {
+            int state = ROOT;
+            for (byte b : patterns.get(t)) {
+                int slot = state * classCount + classOfByte[b & 0xFF];
+                if (trie[slot] < 0) {
+                    trie[slot] = states++;
+                }
+                state = trie[slot];
+            }
+            termStates[t] = state;
+        }
+
+        // Breadth-first pass: compute failure links and complete the transitions
+        this.stateCount = states;
+        this.next = Arrays.copyOf(trie, states * classCount);
+        this.fail = new int[states];
+        this.bfsOrder = new int[states];
+        int head = 0;
+        int tail = 0;
+        bfsOrder[tail++] = ROOT;
+        while (head < tail) {
+            int state = bfsOrder[head++];
+            for (int c = 0; c < classCount; c++) {
+                int slot = state * classCount + c;
+                int child = next[slot];
+                int fallback = state == ROOT ? ROOT : next[fail[state] * classCount + c];
+                if (child < 0) {
+                    next[slot] = fallback;
+                } else {
+                    fail[child] = fallback;
+                    bfsOrder[tail++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a new matcher positioned at the start of an input.
+     *
+     * @return a matcher owned by the calling thread
+     */
+    Matcher newMatcher() {
+        return new Matcher();
+    }
+
+    /**
+     * Returns the number of states of the automaton.
+     *
+     * @return the state count
+     */
+    int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Normalizes one input byte.
+     *
+     * @return ' ' for a delimiter, -1 for a dropped byte, otherwise the byte
+     *         (folded to lower case if requested)
+     */
+    private static int normalize(byte b, boolean foldCase, boolean stripPunctuation) {
+        if (WordScanner.isDelimiter(b)) {
+            return ' ';
+        }
+        int u = b & 0xFF;
+        if (foldCase && u >= 'A' && u <= 'Z') {
+            return u + ('a' - 'A');
+        }
+        if (stripPunctuation && u > ' ' && u < 0x7F && !Character.isLetterOrDigit(u)) {
+            return -1;
+        }
+        return u;
+    }
+
+    /**
+     * Normalizes a term into the pattern " word word " with single spaces.
+     */
+    private static byte[] normalizeTerm(String term, int[] normalized) {
+        byte[] raw = term.getBytes(StandardCharsets.UTF_8);
+        byte[] pattern = new byte[raw.length + 2];
+        int length = 0;
+        pattern[length++] = ' ';
+        for (byte b : raw) {
+            int n = normalized[b & 0xFF];
+            if (n < 0 || (n == ' ' && pattern[length - 1] == ' ')) {
+                continue;
+            }
+            pattern[length++] = (byte) n;
+        }
+        if (pattern[length - 1] != ' ') {
+            pattern[length++] = ' ';
+        }
+        if (length < 3) {
+            throw new IllegalArgumentException("Term is empty once normalized: \"" + term + "\"");
+        }
+        return Arrays.copyOf(pattern, length);
+    }
+
+    /**
+     * The scanning state of one input. Not thread-safe: each thread scanning a
+     * file uses its own matcher.
+     */
+    final class Matcher {
+
+        // Number of times each state was reached
+        private final long[] hits = new long[stateCount];
+
+        // Start just after a virtual space so the first word can match
+        private int state = next[ROOT * classCount + spaceClass];
+        private boolean afterSpace = true;
+
+        private Matcher() {
+        }
+
+        /**
+         * Scans the bytes of the buffer between two absolute indexes.
+         * The buffer position and limit are left untouched.
+         *
+         * @param buf  the buffer to scan
+         * @param from the first index to scan (inclusive)
+         * @param to   the last index to scan (exclusive)
+         */
+        void scan(ByteBuffer buf, int from, int to) {
+            // Work on locals so the hot loop stays in registers
+            int[] classes = byteClasses;
+            int[] table = next;
+            long[] h = hits;
+            int k = classCount;
+            int sc = spaceClass;
+            int s = state;
+            boolean space = afterSpace;
+
+            for (int i = from; i < to; i++) {
+                int c = classes[buf.get(i) & 0xFF];
+                if (c < 0) {
+                    continue;
+                }
+                if (c == sc) {
+                    if (space) {
+                        continue;
+                    }
+                    space = true;
+                } else {
+                    space = false;
+                }
+                s = table[s * k + c];
+                h[s]++;
+            }
+
+            state = s;
+            afterSpace = space;
+        }
+
+        /**
+         * Marks the end of the input so the last word can match.
+         */
+        void finish() {
+            if (!afterSpace) {
+                state = next[state * classCount + spaceClass];
+                hits[state]++;
+                afterSpace = true;
+            }
+        }
+
+        /**
+         * Returns the number of occurrences of every term found so far.
+         *
+         * @return the counts, in the order of the dictionary
+         */
+        Map<String, Long> counts() {
+            // A term ends at every reached state whose failure chain contains
+            // the term state, so push the hits up the failure links
+            long[] totals = hits.clone();
+            for (int i = stateCount - 1; i > 0; i--) {
+                int s = bfsOrder[i];
+                totals[fail[s]] += totals[s];
+            }
+
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (int t = 0; t < terms.length; t++) {
+                counts.put(terms[t], totals[termStates[t]]);
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package Ex1_CountingTwoWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A counting thread that first looks the count up in a {@link CountCache} and
+ * only scans the file (with a {@link MappedCountingTask}) when it is not
+ * cached, storing the result for the next runs.
+ */
+class CachedCountingTask extends CountingTwoWords.CountingTask {
+
+    /**
+     * Normalization options of the counts produced by {@link MappedCountingTask}.
+     */
+    private static final String OPTIONS = "exact";
+
+    private final CountCache cache;
+
+    /**
+     * Constructs a CachedCountingTask with the specified file, target word and cache.
+     *
+     * @param file  the file to be scanned
+     * @param word  the word to count within the file
+     * @param cache the cache shared by all the tasks
+     */
+    public CachedCountingTask(File file, String word, CountCache cache) {
+        super(file, word);
+        this.cache = cache;
+    }
+
+    /**
+     * The run method executed when the thread starts.
+     * It returns the cached count, or scans the file and caches its count.
+     */
+    @Override
+    public void run() {
+        if (!file.isFile()) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, "File not found: {0}", file);
+            return;
+        }
+
+        try {
+            // Hashed once: the same entry is looked up and, on a miss, stored
+            String entry = cache.entryName(file, word, OPTIONS);
+            long cached = cache.get(entry);
+            if (cached >= 0) {
+                counter = cached;
+                System.out.println("Cached count in file " + file.getName() + ": " + this.getCounter());
+                return;
+            }
+
+            // Scan in this thread, then remember the result
+            MappedCountingTask scan = new MappedCountingTask(file, word);
+            scan.run();
+            counter = scan.getCounter();
+            cache.put(entry, file, word, OPTIONS, counter);
+        } catch (IOException ex) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
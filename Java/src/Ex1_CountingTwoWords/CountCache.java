@@ -0,0 +1,268 @@
+package Ex1_CountingTwoWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local on-disk cache of per-file word counts, shared by all the counting
+ * threads of a run and reused across runs.
+ * <p>
+ * An entry is keyed by the canonical path of the file, its size, its
+ * modification time (or the SHA-256 of its content when content hashing is
+ * enabled), the word and the normalization options. The key is hashed into
+ * the name of a small entry file, so a lookup is one file read and an
+ * unchanged corpus is never scanned twice.
+ * <p>
+ * Entries are evicted in least-recently-used order once their total size
+ * exceeds the limit. The order survives restarts because a hit refreshes the
+ * modification time of the entry file.
+ */
+class CountCache {
+
+    private static final String SUFFIX = ".count";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean hashContent;
+
+    // Entry file name -> entry size, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Opens the cache stored in the given directory, creating it if needed.
+     *
+     * @param directory   the directory holding the entries
+     * @param maxBytes    the maximum total size of the entries
+     * @param hashContent true to key the entries by the content of the files
+     *                    instead of their modification time
+     * @throws IOException if the directory cannot be created or listed
+     */
+    CountCache(Path directory, long maxBytes, boolean hashContent) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.hashContent = hashContent;
+
+        Files.createDirectories(directory);
+
+        // Rebuild the LRU order from the modification times of the entries
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(existing::add);
+        }
+        existing.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+        for (Path entry : existing) {
+            long size = Files.size(entry);
+            entries.put(entry.getFileName().toString(), size);
+            totalBytes += size;
+        }
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the name of the entry of a count, hashing the content of the
+     * file when content hashing is enabled. It is computed once per count and
+     * given to both {@link #get(String)} and {@link #put}, so the file is
+     * hashed once, and a count is stored under the version of the file that
+     * was looked up even if the file changes during the scan.
+     *
+     * @param file    the counted file
+     * @param word    the counted word
+     * @param options the normalization options used to count
+     * @return the entry name
+     * @throws IOException if the file cannot be read
+     */
+    String entryName(File file, String word, String options) throws IOException {
+        String version = hashContent
+                ? "sha256=" + contentHash(file)
+                : "mtime=" + file.lastModified();
+        String key = file.getCanonicalPath() + '\0' + file.length() + '\0' + version + '\0' + word + '\0' + options;
+        return HexFormat.of().formatHex(sha256().digest(key.getBytes(StandardCharsets.UTF_8))) + SUFFIX;
+    }
+
+    /**
+     * Looks up a count.
+     *
+     * @param name the entry name, from {@link #entryName}
+     * @return the cached count, or -1 if it is not cached
+     */
+    long get(String name) {
+        Path entry = directory.resolve(name);
+
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                misses.incrementAndGet();
+                return -1;
+            }
+        }
+
+        Properties saved = new Properties();
+        try (InputStream in = Files.newInputStream(entry)) {
+            saved.load(in);
+            long count = Long.parseLong(saved.getProperty("count"));
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return count;
+        } catch (IOException | IllegalArgumentException ex) {
+            // The entry was evicted meanwhile or is corrupted
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.FINE, "Dropping cache entry " + entry, ex);
+            remove(name);
+            misses.incrementAndGet();
+            return -1;
+        }
+    }
+
+    /**
+     * Stores the count of a word in a file.
+     *
+     * @param name    the entry name, from {@link #entryName} before the scan
+     * @param file    the counted file
+     * @param word    the counted word
+     * @param options the normalization options used to count
+     * @param count   the count to store
+     * @throws IOException if the entry cannot be written
+     */
+    void put(String name, File file, String word, String options, long count) throws IOException {
+        Path entry = directory.resolve(name);
+
+        Properties state = new Properties();
+        state.setProperty("file", file.getCanonicalPath());
+        state.setProperty("word", word);
+        state.setProperty("options", options);
+        state.setProperty("count", Long.toString(count));
+
+        Path tmp = Files.createTempFile(directory, name, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            state.store(out, null);
+        }
+        Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long size = Files.size(entry);
+        synchronized (this) {
+            Long previous = entries.put(name, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return the hit count
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that were not cached.
+     *
+     * @return the miss count
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the total size of the entries.
+     *
+     * @return the size in bytes
+     */
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its limit.
+     * Must be called while holding the cache monitor.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException ex) {
+                Logger.getLogger(CountingTwoWords.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Forgets an entry and deletes its file.
+     */
+    private synchronized void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException ex) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 of the content of a file.
+     */
+    private static String contentHash(File file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MappedCountingTask.WINDOW) {
+                long length = Math.min(MappedCountingTask.WINDOW, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                digest.update(buffer);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package Ex1_CountingTwoWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import Ex6_ProducerConsumer.ProducerConsumer.BoundedBuffer;
+import Ex6_ProducerConsumer.TwoLockQueue;
+import Metrics.Histogram;
+import Metrics.Metrics;
+
+/**
+ * Counts a word in any number of files with a pipeline of three stages joined
+ * by bounded producer/consumer queues ({@link TwoLockQueue} of Ex6):
+ * <ol>
+ * <li>read: reader threads take the files one after the other and cut them
+ * into large chunks of bytes, ending on a token boundary, into the chunk
+ * queue</li>
+ * <li>count: counter threads take the chunks, whatever file they come from,
+ * scan them with a {@link WordScanner} and add to their own partial counts,
+ * per file, without sharing anything; when the chunks run out, each counter
+ * puts its partial counts into the partial queue</li>
+ * <li>merge: one thread combines the partial counts of all the counters</li>
+ * </ol>
+ * <p>
+ * The readers wait for the disk while the counters use the CPU, and the chunk
+ * queue bounds the memory taken by chunks read ahead. The number of counters
+ * does not depend on the number of files: a single large file keeps all of
+ * them busy.
+ * <p>
+ * To find the bottleneck, each stage records the time its threads spend
+ * working and waiting on a queue, and each queue its depth: a stage busy all
+ * the time with a full input queue limits the throughput. The depths are also
+ * histograms of the {@link Metrics} ({@code -Dmetrics=true}).
+ */
+class CountingPipeline {
+
+    /**
+     * Marks the end of the chunks for one counter.
+     */
+    private static final Chunk END = new Chunk(-1, ByteBuffer.allocate(0), false);
+
+    private final File[] files;
+    private final byte[] word;
+    private final int readers;
+    private final int counters;
+    private final int chunkSize;
+
+    private final BoundedBuffer<Chunk> chunks;
+    private final BoundedBuffer<long[]> partials;
+
+    // Next file to read
+    private final AtomicInteger nextFile = new AtomicInteger();
+
+    private final Stage read = new Stage("read");
+    private final Stage count = new Stage("count");
+    private final Stage merge = new Stage("merge");
+    private final Depth chunksDepth = new Depth("CountingPipeline.chunks.depth");
+    private final Depth partialsDepth = new Depth("CountingPipeline.partials.depth");
+
+    private long[] totals;
+    private long elapsed;
+
+    /**
+     * Constructs a pipeline.
+     *
+     * @param files     the files to scan
+     * @param word      the word to count
+     * @param readers   the number of reader threads
+     * @param counters  the number of counter threads
+     * @param chunkSize the size of a chunk in bytes, larger than the word
+     * @throws IllegalArgumentException if a number is too small
+     */
+    CountingPipeline(File[] files, String word, int readers, int counters, int chunkSize) {
+        this.word = word.getBytes(StandardCharsets.UTF_8);
+        if (readers < 1 || counters < 1 || chunkSize <= this.word.length) {
+            throw new IllegalArgumentException("Invalid pipeline: " + readers + " readers, " + counters
+                    + " counters, chunks of " + chunkSize + " bytes");
+        }
+        this.files = files;
+        this.readers = readers;
+        this.counters = counters;
+        this.chunkSize = chunkSize;
+        // Two chunks ahead per counter: enough to keep them busy while the readers wait for the disk
+        this.chunks = new TwoLockQueue<>(2 * counters);
+        this.partials = new TwoLockQueue<>(counters);
+    }
+
+    /**
+     * Runs the pipeline and waits for the counts.
+     *
+     * @return the count of the word in each file, in the order of the files
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    long[] run() throws InterruptedException {
+        long start = System.nanoTime();
+        Thread[] readerThreads = new Thread[readers];
+        Thread[] counterThreads = new Thread[counters];
+        for (int i = 0; i < readers; i++) {
+            readerThreads[i] = new Thread(this::readFiles, "reader-" + i);
+            readerThreads[i].start();
+        }
+        for (int i = 0; i < counters; i++) {
+            counterThreads[i] = new Thread(this::countChunks, "counter-" + i);
+            counterThreads[i].start();
+        }
+        Thread merger = new Thread(this::mergePartials, "merger");
+        merger.start();
+
+        for (Thread reader : readerThreads) {
+            reader.join();
+        }
+        // Every chunk is queued: one end marker per counter, behind them
+        for (int i = 0; i < counters; i++) {
+            chunks.addElement(END);
+        }
+        merger.join();
+        elapsed = System.nanoTime() - start;
+        return totals;
+    }
+
+    /**
+     * Prints, for each stage, its threads, what it processed, the share of
+     * time its threads spent working and waiting, and its throughput, then
+     * the mean depth of each queue.
+     */
+    void printReport() {
+        System.out.printf("%-8s %8s %8s %10s %8s %8s %10s%n", "stage", "threads", "items", "MB", "busy %",
+                "wait %", "MB/s");
+        read.print(readers, elapsed);
+        count.print(counters, elapsed);
+        merge.print(1, elapsed);
+        chunksDepth.print("chunk queue", 2 * counters);
+        partialsDepth.print("partial queue", counters);
+    }
+
+    /**
+     * Body of a reader thread: reads the files not yet taken by another
+     * reader.
+     */
+    private void readFiles() {
+        int file;
+        while ((file = nextFile.getAndIncrement()) < files.length) {
+            try {
+                readFile(file);
+            } catch (IOException ex) {
+                Logger.getLogger(CountingPipeline.class.getName()).log(Level.SEVERE, null, ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cuts a file into chunks ending after the last delimiter they hold, the
+     * bytes of the token cut at the end being moved to the next chunk. A chunk
+     * without any delimiter is queued whole; the next chunk then starts in
+     * the middle of a token, which is longer than a chunk and cannot be the
+     * word.
+     */
+    private void readFile(int file) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(files[file].toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+            boolean continued = false;
+            boolean eof = false;
+            while (!eof) {
+                long begin = System.nanoTime();
+                while (buffer.hasRemaining() && !eof) {
+                    eof = channel.read(buffer) < 0;
+                }
+                buffer.flip();
+                int cut = buffer.limit();
+                if (!eof) {
+                    while (cut > 0 && !WordScanner.isDelimiter(buffer.get(cut - 1))) {
+                        cut--;
+                    }
+                    if (cut == 0) {
+                        cut = buffer.limit();
+                    }
+                }
+                // The next buffer starts with the bytes after the cut
+                ByteBuffer next = ByteBuffer.allocate(chunkSize);
+                next.put(buffer.slice(cut, buffer.limit() - cut));
+                buffer.limit(cut);
+                read.work(System.nanoTime() - begin, cut);
+
+                if (cut > 0) {
+                    begin = System.nanoTime();
+                    chunks.addElement(new Chunk(file, buffer, continued));
+                    read.waited(System.nanoTime() - begin);
+                    chunksDepth.record(chunks.size());
+                }
+                continued = cut > 0 && !WordScanner.isDelimiter(buffer.get(cut - 1));
+                buffer = next;
+            }
+        }
+    }
+
+    /**
+     * Body of a counter thread: scans chunks until an end marker, then queues
+     * its partial counts.
+     */
+    private void countChunks() {
+        long[] counts = new long[files.length];
+        try {
+            while (true) {
+                long begin = System.nanoTime();
+                Chunk chunk = chunks.removeElement();
+                count.waited(System.nanoTime() - begin);
+                chunksDepth.record(chunks.size());
+                if (chunk == END) {
+                    break;
+                }
+
+                begin = System.nanoTime();
+                ByteBuffer bytes = chunk.bytes();
+                int from = 0;
+                if (chunk.continued()) {
+                    // Skip the end of the token of the previous chunk
+                    while (from < bytes.limit() && !WordScanner.isDelimiter(bytes.get(from))) {
+                        from++;
+                    }
+                }
+                WordScanner scanner = new WordScanner(word);
+                scanner.scan(bytes, from, bytes.limit());
+                scanner.finish();
+                counts[chunk.file()] += scanner.getCount();
+                count.work(System.nanoTime() - begin, bytes.limit());
+            }
+
+            long begin = System.nanoTime();
+            partials.addElement(counts);
+            count.waited(System.nanoTime() - begin);
+            partialsDepth.record(partials.size());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the merge thread: adds up the partial counts of every counter.
+     */
+    private void mergePartials() {
+        long[] sums = new long[files.length];
+        try {
+            for (int i = 0; i < counters; i++) {
+                long begin = System.nanoTime();
+                long[] counts = partials.removeElement();
+                merge.waited(System.nanoTime() - begin);
+                partialsDepth.record(partials.size());
+
+                begin = System.nanoTime();
+                for (int file = 0; file < sums.length; file++) {
+                    sums[file] += counts[file];
+                }
+                merge.work(System.nanoTime() - begin, 0);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        totals = sums;
+    }
+
+    /**
+     * A token-aligned part of a file.
+     *
+     * @param file      the index of the file
+     * @param bytes     the bytes, from 0 to the limit
+     * @param continued whether the first token started in the previous chunk
+     */
+    private record Chunk(int file, ByteBuffer bytes, boolean continued) {
+    }
+
+    /**
+     * The activity of the threads of a stage.
+     */
+    private static final class Stage {
+
+        private final String name;
+        private final LongAdder items = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records an item processed.
+         *
+         * @param nanos the time spent on it
+         * @param size  its number of bytes
+         */
+        void work(long nanos, long size) {
+            items.increment();
+            bytes.add(size);
+            busyNanos.add(nanos);
+        }
+
+        /**
+         * Records a wait on a queue, full or empty.
+         *
+         * @param nanos the time spent waiting
+         */
+        void waited(long nanos) {
+            waitNanos.add(nanos);
+        }
+
+        void print(int threads, long elapsed) {
+            double available = (double) threads * elapsed;
+            double mb = bytes.sum() / (1024.0 * 1024.0);
+            System.out.printf("%-8s %8d %8d %10.1f %8.1f %8.1f %10.1f%n", name, threads, items.sum(), mb,
+                    100 * busyNanos.sum() / available, 100 * waitNanos.sum() / available, mb / (elapsed / 1e9));
+        }
+    }
+
+    /**
+     * The depth of a queue, recorded after each addition and removal.
+     */
+    private static final class Depth {
+
+        private final Histogram histogram;
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        Depth(String name) {
+            histogram = Metrics.histogram(name);
+        }
+
+        void record(int size) {
+            samples.increment();
+            sum.add(size);
+            histogram.record(size);
+        }
+
+        void print(String name, int capacity) {
+            long n = samples.sum();
+            System.out.printf("%s: capacity %d, mean depth %.1f%n", name, capacity, n == 0 ? 0.0 : (double) sum.sum() / n);
+        }
+    }
+}
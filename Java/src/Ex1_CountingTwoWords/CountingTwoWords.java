@@ -1,7 +1,12 @@
 package Ex1_CountingTwoWords;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.BufferedReader;
@@ -9,28 +14,100 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * A multithreaded Java program that counts the number of occurrences of the
  * word "Alice"
  * in two separate text files using two threads.
+ * <p>
+ * The scanning mode is chosen by the first command-line argument:
+ * <ul>
+ * <li>{@code lines} (default): line-by-line reading with {@link CountingTask}</li>
+ * <li>{@code mapped}: memory-mapped byte scanning with {@link MappedCountingTask}</li>
+ * <li>{@code forkjoin}: each file split into byte ranges scanned in parallel
+ * with {@link ForkJoinCountingTask}</li>
+ * <li>{@code terms [--fold-case] [--strip-punctuation] term...}: every term
+ * counted in one pass per file with {@link MultiPatternCountingTask}</li>
+ * <li>{@code follow [pollMillis]}: only the bytes appended since the last
+ * checkpoint are scanned with {@link FollowCountingTask}; with a poll delay
+ * the files keep being followed until the program is stopped</li>
+ * <li>{@code cached [--hash]}: counts are looked up in a {@link CountCache}
+ * stored in {@code .count-cache} and files are only scanned on a miss</li>
+ * <li>{@code pipeline [readers [counters [chunkKB]]] [file...]}: the files (the
+ * two chapters by default) are read in chunks of chunkKB kilobytes (64 by
+ * default) by the readers (2 by default) and counted by the counters (one per
+ * core by default) of a {@link CountingPipeline}, which prints the activity of
+ * each stage</li>
+ * </ul>
  */
 public class CountingTwoWords {
 
+    /**
+     * Maximum total size of the on-disk count cache.
+     */
+    private static final long CACHE_MAX_BYTES = 16L << 20;
+
     /**
      * Main entry point. Initializes two threads to count occurrences of a word in
      * separate files.
      *
-     * @param args command-line arguments (not used)
+     * @param args optional scanning mode ({@code lines}, {@code mapped},
+     *             {@code forkjoin}, {@code terms}, {@code follow},
+     *             {@code cached} or {@code pipeline}) followed by its options
      */
     public static void main(String[] args) {
 
+        String mode = args.length > 0 ? args[0] : "lines";
+
         // Replace with the absolute path to the files if necessary
         File f1 = new File("alice-chap1-6.txt");
         File f2 = new File("alice-chap7-12.txt");
 
-        CountingTask task1 = new CountingTask(f1, "Alice");
-        CountingTask task2 = new CountingTask(f2, "Alice");
+        if (mode.equals("forkjoin")) {
+            try {
+                long total = ForkJoinCountingTask.countAll(new File[] { f1, f2 }, "Alice", ForkJoinPool.commonPool());
+                System.out.println("Total count of Alice: " + total);
+            } catch (IOException ex) {
+                Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            return;
+        }
+
+        if (mode.equals("terms")) {
+            countTerms(args, f1, f2);
+            return;
+        }
+
+        if (mode.equals("pipeline")) {
+            countWithPipeline(args, f1, f2);
+            return;
+        }
+
+        CountCache cache = null;
+        CountingTask task1;
+        CountingTask task2;
+        if (mode.equals("cached")) {
+            boolean hashContent = args.length > 1 && args[1].equals("--hash");
+            try {
+                cache = new CountCache(Path.of(".count-cache"), CACHE_MAX_BYTES, hashContent);
+            } catch (IOException ex) {
+                Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+            task1 = new CachedCountingTask(f1, "Alice", cache);
+            task2 = new CachedCountingTask(f2, "Alice", cache);
+        } else if (mode.equals("mapped")) {
+            task1 = new MappedCountingTask(f1, "Alice");
+            task2 = new MappedCountingTask(f2, "Alice");
+        } else if (mode.equals("follow")) {
+            long pollMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+            task1 = new FollowCountingTask(f1, "Alice", pollMillis);
+            task2 = new FollowCountingTask(f2, "Alice", pollMillis);
+        } else {
+            task1 = new CountingTask(f1, "Alice");
+            task2 = new CountingTask(f2, "Alice");
+        }
 
         task1.start();
         task2.start();
@@ -41,8 +118,103 @@ public class CountingTwoWords {
         }
 
         // Calculate total count from both threads
-        int total = task1.getCounter() + task2.getCounter();
+        long total = task1.getCounter() + task2.getCounter();
         System.out.println("Total count of Alice: " + total);
+
+        if (cache != null) {
+            System.out.println("Cache hits: " + cache.getHits() + ", misses: " + cache.getMisses()
+                    + ", size: " + cache.getTotalBytes() + " bytes");
+        }
+    }
+
+    /**
+     * Counts a dictionary of terms in both files, one thread per file, and
+     * prints the merged frequencies.
+     *
+     * @param args the command-line arguments of the {@code terms} mode
+     * @param f1   the first file
+     * @param f2   the second file
+     */
+    private static void countTerms(String[] args, File f1, File f2) {
+        boolean foldCase = false;
+        boolean stripPunctuation = false;
+        List<String> terms = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fold-case" -> foldCase = true;
+                case "--strip-punctuation" -> stripPunctuation = true;
+                default -> terms.add(args[i]);
+            }
+        }
+        if (terms.isEmpty()) {
+            terms.add("Alice");
+        }
+
+        // The automaton is built once and shared by both threads
+        AhoCorasick automaton = new AhoCorasick(terms, foldCase, stripPunctuation);
+        MultiPatternCountingTask task1 = new MultiPatternCountingTask(f1, automaton);
+        MultiPatternCountingTask task2 = new MultiPatternCountingTask(f2, automaton);
+
+        task1.start();
+        task2.start();
+
+        // Busy-wait until both threads are done
+        while (task1.isAlive() || task2.isAlive()) {
+            Thread.yield();
+        }
+
+        Map<String, Long> total = new LinkedHashMap<>(task1.getCounts());
+        task2.getCounts().forEach((term, count) -> total.merge(term, count, Long::sum));
+        System.out.println("Total counts: " + total);
+    }
+
+    /**
+     * Counts the word in files with a pipeline of reader, counter and merge
+     * threads, and prints the counts and the activity of each stage.
+     *
+     * @param args the command-line arguments of the {@code pipeline} mode
+     * @param f1   the first default file
+     * @param f2   the second default file
+     */
+    private static void countWithPipeline(String[] args, File f1, File f2) {
+        int readers = 2;
+        int counters = Runtime.getRuntime().availableProcessors();
+        int chunkKB = 64;
+        List<File> files = new ArrayList<>();
+        // The leading numbers are the options, the other arguments the files
+        int options = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (options < 3 && files.isEmpty() && !args[i].isEmpty()
+                    && args[i].chars().allMatch(Character::isDigit)) {
+                switch (options++) {
+                    case 0 -> readers = Integer.parseInt(args[i]);
+                    case 1 -> counters = Integer.parseInt(args[i]);
+                    default -> chunkKB = Integer.parseInt(args[i]);
+                }
+            } else {
+                files.add(new File(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            files.add(f1);
+            files.add(f2);
+        }
+
+        CountingPipeline pipeline = new CountingPipeline(files.toArray(new File[0]), "Alice", readers, counters,
+                chunkKB * 1024);
+        try {
+            long[] counts = pipeline.run();
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                System.out.println("Count in file " + files.get(i).getName() + ": " + counts[i]);
+                total += counts[i];
+            }
+            System.out.println("Total count of Alice: " + total);
+            pipeline.printReport();
+        } catch (InterruptedException ex) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, null, ex);
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -51,9 +223,9 @@ public class CountingTwoWords {
      */
     static class CountingTask extends Thread {
 
-        private final File file;
-        private final String word;
-        private int counter = 0;
+        protected final File file;
+        protected final String word;
+        protected long counter = 0;
 
         /**
          * Constructs a CountingTask with the specified file and target word.
@@ -71,7 +243,7 @@ public class CountingTwoWords {
          *
          * @return the word count
          */
-        public int getCounter() {
+        public long getCounter() {
             return counter;
         }
 
@@ -0,0 +1,156 @@
+package Ex1_CountingTwoWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A counting thread for append-only files that only scans the bytes added
+ * since its last run.
+ * <p>
+ * After each pass the offset reached, the partial-token state and the running
+ * count are saved to a small checkpoint file next to the input
+ * ({@code <file>.ckpt}). On restart, or when the file grows while following
+ * it, scanning resumes from the saved offset, so the cost of a recount is
+ * proportional to the appended bytes. A word cut by the end of an append is
+ * completed by the next one. If the file shrinks, or the checkpoint was made
+ * for another word, the count starts again from byte 0.
+ */
+class FollowCountingTask extends CountingTwoWords.CountingTask {
+
+    private final Path checkpoint;
+    private final long pollMillis;
+
+    /**
+     * Constructs a FollowCountingTask with the specified file and target word.
+     *
+     * @param file       the file to be scanned
+     * @param word       the word to count within the file
+     * @param pollMillis the delay between two checks for appended bytes, or 0
+     *                   to scan the new bytes once and stop
+     */
+    public FollowCountingTask(File file, String word, long pollMillis) {
+        super(file, word);
+        this.checkpoint = Path.of(file.getPath() + ".ckpt");
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * The run method executed when the thread starts.
+     * It scans the appended bytes, then keeps polling the file for new ones
+     * until interrupted if a poll delay was given.
+     */
+    @Override
+    public void run() {
+        System.out.println("Following file: " + file.getName());
+
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        long offset = 0;
+        WordScanner scanner = new WordScanner(bytes);
+
+        // Resume from the checkpoint if it matches this word
+        Properties saved = loadCheckpoint();
+        if (saved != null && word.equals(saved.getProperty("word"))) {
+            try {
+                offset = Long.parseLong(saved.getProperty("offset"));
+                scanner = new WordScanner(bytes, Integer.parseInt(saved.getProperty("matched")),
+                        Long.parseLong(saved.getProperty("count")));
+            } catch (IllegalArgumentException ex) {
+                Logger.getLogger(CountingTwoWords.class.getName()).log(Level.WARNING, "Ignoring invalid checkpoint " + checkpoint, ex);
+                offset = 0;
+            }
+        }
+        counter = scanner.getCountAtEnd();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            do {
+                long size = channel.size();
+                if (size < offset) {
+                    // The file was truncated or replaced: start over
+                    System.out.println("File " + file.getName() + " shrank, counting again from the start");
+                    offset = 0;
+                    scanner = new WordScanner(bytes);
+                }
+
+                if (size > offset) {
+                    for (long position = offset; position < size; position += MappedCountingTask.WINDOW) {
+                        int length = (int) Math.min(MappedCountingTask.WINDOW, size - position);
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                        scanner.scan(buffer, 0, length);
+                    }
+                    System.out.println("Scanned " + (size - offset) + " new bytes in file " + file.getName());
+                    offset = size;
+                    saveCheckpoint(offset, scanner);
+                    counter = scanner.getCountAtEnd();
+                    if (pollMillis > 0) {
+                        System.out.println("Count in file " + file.getName() + ": " + this.getCounter());
+                    }
+                }
+
+                if (pollMillis > 0) {
+                    Thread.sleep(pollMillis);
+                }
+            } while (pollMillis > 0);
+        } catch (IOException ex) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            // Interruption is the normal way to stop following the file
+            Thread.currentThread().interrupt();
+        }
+
+        System.out.println("Count in file " + file.getName() + ": " + this.getCounter());
+    }
+
+    /**
+     * Loads the checkpoint of the file.
+     *
+     * @return the saved state, or null if there is none or it cannot be read
+     */
+    private Properties loadCheckpoint() {
+        if (!Files.exists(checkpoint)) {
+            return null;
+        }
+        Properties saved = new Properties();
+        try (InputStream in = Files.newInputStream(checkpoint)) {
+            saved.load(in);
+        } catch (IOException | IllegalArgumentException ex) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.WARNING, "Ignoring unreadable checkpoint " + checkpoint, ex);
+            return null;
+        }
+        return saved;
+    }
+
+    /**
+     * Saves the checkpoint of the file. The new state is written to a temporary
+     * file and then moved over the old one, so a crash never leaves a
+     * half-written checkpoint.
+     *
+     * @param offset  the offset of the next byte to scan
+     * @param scanner the scanner holding the count and partial-token state
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private void saveCheckpoint(long offset, WordScanner scanner) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("word", word);
+        state.setProperty("offset", Long.toString(offset));
+        state.setProperty("matched", Integer.toString(scanner.getMatched()));
+        state.setProperty("count", Long.toString(scanner.getCount()));
+
+        Path tmp = Path.of(checkpoint + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            state.store(out, "Word count checkpoint of " + file.getName());
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,158 @@
+package Ex1_CountingTwoWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A fork/join task that counts the occurrences of a word in a byte range of a
+ * file, splitting the range in two until it is small enough to be scanned
+ * directly.
+ * <p>
+ * A token is owned by the range that contains its first byte: a range skips
+ * the token it starts in the middle of, and finishes the token that crosses
+ * its end. This way an occurrence that straddles a split point is counted
+ * exactly once, and a single large file keeps every core of the pool busy.
+ */
+class ForkJoinCountingTask extends RecursiveTask<Long> {
+
+    /**
+     * Ranges at or below this size are scanned without further splitting.
+     */
+    static final long LEAF_SIZE = 16L << 20;
+
+    // Tasks are never serialized, but ForkJoinTask is Serializable
+    private static final long serialVersionUID = 1L;
+
+    private final transient FileChannel channel;
+    private final long size;
+    private final byte[] word;
+    private final long start;
+    private final long end;
+
+    /**
+     * Constructs a task counting the word in the range [start, end) of the file.
+     *
+     * @param channel the open channel of the file
+     * @param size    the size of the file
+     * @param word    the encoded word to count
+     * @param start   the first byte of the range (inclusive)
+     * @param end     the last byte of the range (exclusive)
+     */
+    ForkJoinCountingTask(FileChannel channel, long size, byte[] word, long start, long end) {
+        this.channel = channel;
+        this.size = size;
+        this.word = word;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Counts the word in every file, scanning all files and all ranges in
+     * parallel on the given pool.
+     *
+     * @param files the files to scan
+     * @param word  the word to count
+     * @param pool  the pool running the tasks
+     * @return the total count over all files
+     * @throws IOException if a file cannot be opened
+     */
+    static long countAll(File[] files, String word, ForkJoinPool pool) throws IOException {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        FileChannel[] channels = new FileChannel[files.length];
+        try {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[files.length];
+            for (int i = 0; i < files.length; i++) {
+                channels[i] = FileChannel.open(files[i].toPath(), StandardOpenOption.READ);
+                long size = channels[i].size();
+                tasks[i] = pool.submit(new ForkJoinCountingTask(channels[i], size, bytes, 0, size));
+            }
+
+            long total = 0;
+            for (int i = 0; i < files.length; i++) {
+                long count = (Long) tasks[i].join();
+                System.out.println("Count in file " + files[i].getName() + ": " + count);
+                total += count;
+            }
+            return total;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the range in two halves, or scans it if it is small enough.
+     *
+     * @return the number of occurrences owned by this range
+     */
+    @Override
+    protected Long compute() {
+        if (end - start <= LEAF_SIZE) {
+            try {
+                return scanRange();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        long middle = start + (end - start) / 2;
+        ForkJoinCountingTask left = new ForkJoinCountingTask(channel, size, word, start, middle);
+        ForkJoinCountingTask right = new ForkJoinCountingTask(channel, size, word, middle, end);
+        left.fork();
+        long rightCount = right.compute();
+        return left.join() + rightCount;
+    }
+
+    /**
+     * Scans the range, aligned to token boundaries.
+     *
+     * @return the number of occurrences owned by this range
+     * @throws IOException if the range cannot be mapped
+     */
+    private long scanRange() throws IOException {
+        // Map one byte before the range to know if it starts inside a token, and
+        // enough bytes after it to finish a token that could still be the word
+        long mapStart = Math.max(0, start - 1);
+        long mapEnd = Math.min(size, end + word.length + 1);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+        int from = (int) (start - mapStart);
+        int to = (int) (end - mapStart);
+        int limit = (int) (mapEnd - mapStart);
+
+        // Skip the token owned by the previous range
+        if (start > 0 && !WordScanner.isDelimiter(buffer.get(from - 1))) {
+            while (from < to && !WordScanner.isDelimiter(buffer.get(from))) {
+                from++;
+            }
+        }
+        if (from == to) {
+            return 0;
+        }
+
+        // Finish the token that crosses the end of the range. If it runs past
+        // the mapped bytes it is longer than the word and cannot match.
+        int stop = to;
+        while (stop < limit && !WordScanner.isDelimiter(buffer.get(stop - 1))) {
+            stop++;
+        }
+
+        WordScanner scanner = new WordScanner(word);
+        scanner.scan(buffer, from, stop);
+        scanner.finish();
+        return scanner.getCount();
+    }
+}
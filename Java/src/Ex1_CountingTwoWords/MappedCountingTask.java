@@ -0,0 +1,62 @@
+package Ex1_CountingTwoWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A counting thread that memory-maps the file and matches the word bytes
+ * directly against the mapped buffer.
+ * <p>
+ * Unlike {@link CountingTwoWords.CountingTask}, no line, token or array is
+ * created while scanning, so the hot loop allocates nothing. Files larger than
+ * one mapping are scanned window by window. The file is assumed to be UTF-8.
+ */
+class MappedCountingTask extends CountingTwoWords.CountingTask {
+
+    /**
+     * Maximum size of one mapped window (a single mapping is limited to 2 GB).
+     */
+    static final long WINDOW = 1L << 30;
+
+    /**
+     * Constructs a MappedCountingTask with the specified file and target word.
+     *
+     * @param file the file to be scanned
+     * @param word the word to count within the file
+     */
+    public MappedCountingTask(File file, String word) {
+        super(file, word);
+    }
+
+    /**
+     * The run method executed when the thread starts.
+     * It maps the file window by window and counts occurrences of the target word.
+     */
+    @Override
+    public void run() {
+        System.out.println("Searching in file: " + file.getName());
+
+        WordScanner scanner = new WordScanner(word.getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += WINDOW) {
+                int length = (int) Math.min(WINDOW, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                scanner.scan(buffer, 0, length);
+            }
+            scanner.finish();
+            counter = scanner.getCount();
+        } catch (IOException ex) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        System.out.println("Count in file " + file.getName() + ": " + this.getCounter());
+    }
+}
@@ -0,0 +1,68 @@
+package Ex1_CountingTwoWords;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A counting thread that counts every term of a dictionary in a single pass
+ * over the file, using a shared {@link AhoCorasick} automaton.
+ */
+class MultiPatternCountingTask extends Thread {
+
+    private final File file;
+    private final AhoCorasick automaton;
+    private Map<String, Long> counts = Collections.emptyMap();
+
+    /**
+     * Constructs a MultiPatternCountingTask with the specified file and automaton.
+     *
+     * @param file      the file to be scanned
+     * @param automaton the automaton built from the terms to count
+     */
+    public MultiPatternCountingTask(File file, AhoCorasick automaton) {
+        this.file = file;
+        this.automaton = automaton;
+    }
+
+    /**
+     * Returns the number of times each term was found in the file.
+     *
+     * @return the frequency of every term
+     */
+    public Map<String, Long> getCounts() {
+        return counts;
+    }
+
+    /**
+     * The run method executed when the thread starts.
+     * It maps the file window by window and feeds it to the automaton.
+     */
+    @Override
+    public void run() {
+        System.out.println("Searching in file: " + file.getName());
+
+        AhoCorasick.Matcher matcher = automaton.newMatcher();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MappedCountingTask.WINDOW) {
+                int length = (int) Math.min(MappedCountingTask.WINDOW, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                matcher.scan(buffer, 0, length);
+            }
+            matcher.finish();
+            counts = matcher.counts();
+        } catch (IOException ex) {
+            Logger.getLogger(CountingTwoWords.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        System.out.println("Counts in file " + file.getName() + ": " + counts);
+    }
+}
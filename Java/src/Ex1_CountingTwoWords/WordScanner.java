@@ -0,0 +1,135 @@
+package Ex1_CountingTwoWords;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A byte-level matcher that counts whole-word occurrences of a target word
+ * without allocating anything while scanning.
+ * <p>
+ * Tokens are delimited exactly like {@link CountingTwoWords.CountingTask}
+ * splits its input: by spaces and by line terminators. The matching state is
+ * kept between calls, so the input may be fed in arbitrary chunks (mapped
+ * windows, file ranges, appended bytes) and a word cut across two chunks is
+ * still counted once.
+ */
+final class WordScanner {
+
+    private final byte[] word;
+
+    // Number of word bytes matched in the current token, or -1 once the
+    // current token can no longer be equal to the word
+    private int matched = 0;
+
+    private long count = 0;
+
+    /**
+     * Constructs a scanner for the given word bytes.
+     *
+     * @param word the encoded word to count
+     * @throws IllegalArgumentException if the word is empty
+     */
+    WordScanner(byte[] word) {
+        this(word, 0, 0);
+    }
+
+    /**
+     * Constructs a scanner resuming from a previously saved state.
+     *
+     * @param word    the encoded word to count
+     * @param matched the partial-token state returned by {@link #getMatched()}
+     * @param count   the count returned by {@link #getCount()}
+     * @throws IllegalArgumentException if the word is empty or the state invalid
+     */
+    WordScanner(byte[] word, int matched, long count) {
+        if (word.length == 0) {
+            throw new IllegalArgumentException("The word to count must not be empty");
+        }
+        if (matched < -1 || matched > word.length || count < 0) {
+            throw new IllegalArgumentException("Invalid scanner state: " + matched + ", " + count);
+        }
+        this.word = word;
+        this.matched = matched;
+        this.count = count;
+    }
+
+    /**
+     * Returns true if the byte separates two tokens.
+     *
+     * @param b the byte to test
+     * @return true for a space or a line terminator
+     */
+    static boolean isDelimiter(byte b) {
+        return b == ' ' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Scans the bytes of the buffer between two absolute indexes.
+     * The buffer position and limit are left untouched.
+     *
+     * @param buf  the buffer to scan
+     * @param from the first index to scan (inclusive)
+     * @param to   the last index to scan (exclusive)
+     */
+    void scan(ByteBuffer buf, int from, int to) {
+        // Work on locals so the hot loop stays in registers
+        byte[] w = word;
+        int m = matched;
+        long c = count;
+
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (isDelimiter(b)) {
+                if (m == w.length) {
+                    c++;
+                }
+                m = 0;
+            } else if (m >= 0 && m < w.length && b == w[m]) {
+                m++;
+            } else {
+                m = -1;
+            }
+        }
+
+        matched = m;
+        count = c;
+    }
+
+    /**
+     * Marks the end of the input, counting the last token if it matches.
+     */
+    void finish() {
+        if (matched == word.length) {
+            count++;
+        }
+        matched = 0;
+    }
+
+    /**
+     * Returns the number of occurrences found so far.
+     *
+     * @return the word count
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the count as if the input ended here, without finishing the
+     * current token (it may still be continued by more input).
+     *
+     * @return the word count including a matching last token
+     */
+    long getCountAtEnd() {
+        return matched == word.length ? count + 1 : count;
+    }
+
+    /**
+     * Returns the partial-token state, to be saved and later given back to
+     * {@link #WordScanner(byte[], int, long)}.
+     *
+     * @return the number of word bytes matched in the current token, or -1
+     */
+    int getMatched() {
+        return matched;
+    }
+}
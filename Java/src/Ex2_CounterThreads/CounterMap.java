@@ -0,0 +1,310 @@
+package Ex2_CounterThreads;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent map of counters for workloads that increment a very large
+ * number of distinct keys (word frequencies, per-tenant request counts...).
+ * <p>
+ * The map is split into independent segments chosen by the hash of the key.
+ * Each segment is an open-addressing table with linear probing that stores
+ * its keys in an {@code Object[]} and its counts in a {@code long[]}, so no
+ * {@code Long} is ever boxed. Incrementing a key that already exists only
+ * takes the segment lock in shared mode and updates the count with an atomic
+ * add; inserting a key takes it in exclusive mode and may resize that segment
+ * alone. There is no global lock on the increment path.
+ * <p>
+ * {@link #snapshot()} briefly locks every segment to copy a consistent,
+ * point-in-time view of all counts.
+ *
+ * @param <K> the type of the keys
+ */
+class CounterMap<K> {
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment<K>[] segments;
+    private final int segmentShift;
+
+    /**
+     * Constructs a map with about four segments per processor.
+     */
+    CounterMap() {
+        this(Runtime.getRuntime().availableProcessors() * 4, 64);
+    }
+
+    /**
+     * Constructs a map.
+     *
+     * @param concurrency     the expected number of concurrently updating threads,
+     *                        rounded up to a power of two to give the segment count
+     * @param initialCapacity the initial number of slots of each segment
+     */
+    CounterMap(int concurrency, int initialCapacity) {
+        int count = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        this.segments = newSegments(count);
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(capacity);
+        }
+    }
+
+    /**
+     * Creates an array of segments: Java cannot create an array of a generic
+     * type directly.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K> Segment<K>[] newSegments(int count) {
+        return (Segment<K>[]) new Segment[count];
+    }
+
+    /**
+     * Adds a delta to the count of a key, creating it at 0 if needed.
+     *
+     * @param key   the key to update
+     * @param delta the value to add
+     * @return the updated count
+     */
+    long incrementAndGet(K key, long delta) {
+        int h = hash(key);
+        return segmentFor(h).incrementAndGet(key, h, delta);
+    }
+
+    /**
+     * Returns the count of a key.
+     *
+     * @param key the key to read
+     * @return the count, or 0 if the key was never incremented
+     */
+    long get(K key) {
+        int h = hash(key);
+        return segmentFor(h).get(key, h);
+    }
+
+    /**
+     * Returns a view of one key as a {@link CounterThreads.Counter}.
+     *
+     * @param key the key to count
+     * @return a counter incrementing and reading this key
+     */
+    CounterThreads.Counter counter(K key) {
+        return new CounterThreads.Counter() {
+            @Override
+            public void inc() {
+                incrementAndGet(key, 1);
+            }
+
+            @Override
+            public long getCount() {
+                return get(key);
+            }
+        };
+    }
+
+    /**
+     * Copies all the counts at a single point in time. Increments are paused
+     * only while the segments are copied.
+     *
+     * @return an immutable snapshot
+     */
+    Snapshot<K> snapshot() {
+        long[] stamps = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            stamps[i] = segments[i].lock.writeLock();
+        }
+        try {
+            int size = 0;
+            for (Segment<K> segment : segments) {
+                size += segment.size;
+            }
+            Object[] keys = new Object[size];
+            long[] values = new long[size];
+            int n = 0;
+            for (Segment<K> segment : segments) {
+                n = segment.copyTo(keys, values, n);
+            }
+            return new Snapshot<>(keys, values);
+        } finally {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                segments[i].lock.unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    private Segment<K> segmentFor(int h) {
+        return segments[h >>> segmentShift];
+    }
+
+    private static int hash(Object key) {
+        // Spread the bits: high bits pick the segment, low bits the slot
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return h * 0x9E3779B9;
+    }
+
+    /**
+     * An open-addressing table guarded by its own lock.
+     */
+    private static final class Segment<K> {
+
+        private final StampedLock lock = new StampedLock();
+        private Object[] keys;
+        private long[] values;
+        private int size = 0;
+
+        Segment(int capacity) {
+            this.keys = new Object[capacity];
+            this.values = new long[capacity];
+        }
+
+        long incrementAndGet(K key, int h, long delta) {
+            // Existing key: shared lock, atomic add on the slot
+            long stamp = lock.readLock();
+            try {
+                int slot = find(keys, key, h);
+                if (slot >= 0) {
+                    return (long) LONGS.getAndAdd(values, slot, delta) + delta;
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+
+            // New key: exclusive lock, insert and resize if needed
+            stamp = lock.writeLock();
+            try {
+                int slot = find(keys, key, h);
+                if (slot >= 0) {
+                    values[slot] += delta;
+                    return values[slot];
+                }
+                if (size + 1 > keys.length * LOAD_FACTOR) {
+                    resize();
+                }
+                slot = ~find(keys, key, h);
+                keys[slot] = key;
+                values[slot] = delta;
+                size++;
+                return delta;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        long get(K key, int h) {
+            long stamp = lock.readLock();
+            try {
+                int slot = find(keys, key, h);
+                return slot >= 0 ? (long) LONGS.getVolatile(values, slot) : 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Doubles the table. Must be called with the write lock held.
+         */
+        private void resize() {
+            Object[] oldKeys = keys;
+            long[] oldValues = values;
+            Object[] newKeys = new Object[oldKeys.length * 2];
+            long[] newValues = new long[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = ~find(newKeys, oldKeys[i], hash(oldKeys[i]));
+                    newKeys[slot] = oldKeys[i];
+                    newValues[slot] = oldValues[i];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        /**
+         * Copies the entries into the arrays. Must be called with the write lock held.
+         */
+        private int copyTo(Object[] toKeys, long[] toValues, int n) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    toKeys[n] = keys[i];
+                    toValues[n] = values[i];
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Looks for a key with linear probing.
+         *
+         * @return the slot of the key, or the complement of the free slot
+         *         where it would be inserted
+         */
+        private static int find(Object[] table, Object key, int h) {
+            int mask = table.length - 1;
+            int slot = h & mask;
+            while (true) {
+                Object k = table[slot];
+                if (k == null) {
+                    return ~slot;
+                }
+                if (k == key || k.equals(key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    /**
+     * An immutable point-in-time copy of the counts.
+     *
+     * @param <K> the type of the keys
+     */
+    static final class Snapshot<K> {
+
+        private final Object[] keys;
+        private final long[] values;
+
+        private Snapshot(Object[] keys, long[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        /**
+         * Returns the number of keys.
+         *
+         * @return the key count
+         */
+        int size() {
+            return keys.length;
+        }
+
+        /**
+         * Returns the sum of all the counts.
+         *
+         * @return the total count
+         */
+        long total() {
+            return Arrays.stream(values).sum();
+        }
+
+        /**
+         * Calls the action for every key and its count, without boxing the count.
+         *
+         * @param action the action to call
+         */
+        @SuppressWarnings("unchecked")
+        void forEach(ObjLongConsumer<? super K> action) {
+            for (int i = 0; i < keys.length; i++) {
+                action.accept((K) keys[i], values[i]);
+            }
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package Ex2_CounterThreads;
 
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -9,24 +14,43 @@ import java.util.concurrent.locks.ReentrantLock;
  * threads.
  * Each thread calls the increment method a specified number of times.
  * The final value of the counter is printed after all threads finish execution.
+ * <p>
+ * The counter implementation is chosen by the first command-line argument:
+ * {@code lock} (default), {@code cas}, {@code striped} or {@code batched}.
+ * With {@code keyed [nbKeys]}, the threads instead spread their increments
+ * over many keys of a {@link CounterMap}.
  */
 public class CounterThreads {
 
     /**
      * Shared counter object accessed and incremented by all threads.
      */
-    public static Counter counter = new Counter();
+    public static Counter counter = new LockCounter();
 
     /**
      * Main method that initializes the number of threads and increments per thread,
      * starts all threads, waits for their completion, and prints the final counter
      * value.
      *
-     * @param args command-line arguments (not used)
+     * @param args optional counter kind ({@code lock}, {@code cas},
+     *             {@code striped}, {@code batched} or {@code keyed [nbKeys]})
      * @throws InterruptedException if any thread is interrupted while waiting
      */
     public static void main(String[] args) throws InterruptedException {
 
+        String kind = args.length > 0 ? args[0] : "lock";
+        CounterMap<String> map = null;
+        String[] keys = null;
+        if (kind.equals("keyed")) {
+            map = new CounterMap<>();
+            keys = new String[args.length > 1 ? Integer.parseInt(args[1]) : 100_000];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "key-" + i;
+            }
+        } else {
+            counter = newCounter(kind);
+        }
+
         int nbTimes, nbThreads;
         Scanner input = new Scanner(System.in);
 
@@ -38,9 +62,11 @@ public class CounterThreads {
 
         Thread[] tasks = new Thread[nbThreads];
 
+        long start = System.nanoTime();
+
         // Create and start each thread
         for (int i = 0; i < nbThreads; i++) {
-            tasks[i] = new CounterTask(nbTimes);
+            tasks[i] = map == null ? new CounterTask(nbTimes) : new KeyedCounterTask(nbTimes, map, keys);
             tasks[i].start();
         }
 
@@ -49,23 +75,72 @@ public class CounterThreads {
             tasks[i].join();
         }
 
-        System.out.println("The final value of the counter = " + counter.getCount());
+        long elapsed = System.nanoTime() - start;
+
+        if (map == null) {
+            System.out.println("The final value of the counter = " + counter.getCount());
+        } else {
+            CounterMap.Snapshot<String> snapshot = map.snapshot();
+            System.out.println("The final number of keys = " + snapshot.size());
+            System.out.println("The final sum of the counters = " + snapshot.total());
+        }
+        System.out.printf("%s: %d ms, %.1f million increments/s%n",
+                map == null ? counter.getClass().getSimpleName() : "CounterMap",
+                elapsed / 1_000_000, (double) nbTimes * nbThreads / elapsed * 1000);
 
         input.close();
     }
 
     /**
-     * A thread-safe counter class that uses a ReentrantLock to safely increment
+     * A thread-safe counter shared by all the threads.
+     * The implementation is selected by {@link #newCounter(String)}.
+     */
+    interface Counter {
+
+        /**
+         * Increments the counter by 1 in a thread-safe manner.
+         */
+        void inc();
+
+        /**
+         * Returns the current value of the counter. The value is exact once
+         * every incrementing thread has been joined.
+         *
+         * @return the count value
+         */
+        long getCount();
+    }
+
+    /**
+     * Creates a counter of the given kind.
+     *
+     * @param kind one of {@code lock}, {@code cas}, {@code striped} or {@code batched}
+     * @return a new counter set to 0
+     * @throws IllegalArgumentException if the kind is unknown
+     */
+    static Counter newCounter(String kind) {
+        return switch (kind) {
+            case "lock" -> new LockCounter();
+            case "cas" -> new AtomicCounter();
+            case "striped" -> new StripedCounter();
+            case "batched" -> new BatchedCounter(BatchedCounter.DEFAULT_BATCH);
+            default -> throw new IllegalArgumentException("Unknown counter kind: " + kind);
+        };
+    }
+
+    /**
+     * A counter that uses a ReentrantLock to safely increment
      * a shared count variable from multiple threads.
      */
-    static class Counter {
-        private static final Lock lock = new ReentrantLock();
+    static class LockCounter implements Counter {
+        private final Lock lock = new ReentrantLock();
         private long count = 0;
 
         /**
          * Atomically increments the counter by 1 in a thread-safe manner.
          */
-        void inc() {
+        @Override
+        public void inc() {
             lock.lock();
             try {
                 count = count + 1;
@@ -75,12 +150,153 @@ public class CounterThreads {
         }
 
         /**
-         * Returns the current value of the counter.
+         * Returns the current value of the counter, read under the lock so the
+         * latest increment is always visible.
          *
          * @return the count value
          */
-        long getCount() {
-            return count;
+        @Override
+        public long getCount() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A lock-free counter that increments an AtomicLong with compare-and-swap.
+     * No thread ever blocks, but all threads still update the same cache line.
+     */
+    static class AtomicCounter implements Counter {
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void inc() {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+    }
+
+    /**
+     * A counter spread over an array of cells (like LongAdder), so threads
+     * mostly increment different cache lines and throughput scales with the
+     * number of threads.
+     * <p>
+     * Each thread starts on a cell chosen from its id and moves to another cell
+     * whenever its compare-and-swap fails. The count is the sum of the cells.
+     */
+    static class StripedCounter implements Counter {
+
+        // Longs between two used cells, so each cell has its own cache line
+        private static final int PADDING = 16;
+
+        // Per-thread cell index, changed on contention
+        private static final ThreadLocal<int[]> probe =
+                ThreadLocal.withInitial(() -> new int[] { mix(Thread.currentThread().threadId()) });
+
+        private final AtomicLongArray cells;
+        private final int mask;
+
+        /**
+         * Constructs a striped counter with about two cells per processor.
+         */
+        StripedCounter() {
+            int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+            this.cells = new AtomicLongArray(stripes * PADDING);
+            this.mask = stripes - 1;
+        }
+
+        @Override
+        public void inc() {
+            int[] p = probe.get();
+            int index = (p[0] & mask) * PADDING;
+            long v = cells.get(index);
+            if (!cells.compareAndSet(index, v, v + 1)) {
+                // Another thread uses this cell: move to another one for next time
+                p[0] = xorShift(p[0]);
+                cells.getAndIncrement(index);
+            }
+        }
+
+        @Override
+        public long getCount() {
+            long sum = 0;
+            for (int i = 0; i <= mask; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+
+        private static int mix(long id) {
+            int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+            return h == 0 ? 1 : h;
+        }
+
+        private static int xorShift(int h) {
+            h ^= h << 13;
+            h ^= h >>> 17;
+            h ^= h << 5;
+            return h;
+        }
+    }
+
+    /**
+     * A counter where each thread accumulates increments in its own batch and
+     * flushes the batch into a shared AtomicLong every {@code batchSize}
+     * increments, so the shared variable is touched once per batch.
+     * <p>
+     * Every batch is registered when its thread first increments, and
+     * {@link #getCount()} adds the pending batches to the flushed total, so no
+     * increment is lost even if a thread never reaches a flush.
+     */
+    static class BatchedCounter implements Counter {
+
+        static final int DEFAULT_BATCH = 1024;
+
+        private final int batchSize;
+        private final AtomicLong flushed = new AtomicLong();
+        private final Queue<AtomicLong> batches = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<AtomicLong> localBatch = ThreadLocal.withInitial(() -> {
+            AtomicLong batch = new AtomicLong();
+            batches.add(batch);
+            return batch;
+        });
+
+        /**
+         * Constructs a batched counter.
+         *
+         * @param batchSize the number of increments between two flushes
+         */
+        BatchedCounter(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void inc() {
+            // Only the owner thread writes its batch, so no atomic update is needed
+            AtomicLong batch = localBatch.get();
+            long pending = batch.getPlain() + 1;
+            if (pending >= batchSize) {
+                flushed.addAndGet(pending);
+                pending = 0;
+            }
+            batch.setRelease(pending);
+        }
+
+        @Override
+        public long getCount() {
+            long sum = flushed.get();
+            for (AtomicLong batch : batches) {
+                sum += batch.getAcquire();
+            }
+            return sum;
         }
     }
 
@@ -111,4 +327,38 @@ public class CounterThreads {
             }
         }
     }
+
+    /**
+     * A thread class that performs a fixed number of increments spread over
+     * the keys of a shared counter map.
+     */
+    static class KeyedCounterTask extends Thread {
+        private final int nbTimes;
+        private final CounterMap<String> map;
+        private final String[] keys;
+
+        /**
+         * Constructs a KeyedCounterTask.
+         *
+         * @param n    the number of increments to perform
+         * @param map  the shared counter map
+         * @param keys the keys to increment, picked at random
+         */
+        public KeyedCounterTask(int n, CounterMap<String> map, String[] keys) {
+            this.nbTimes = n;
+            this.map = map;
+            this.keys = keys;
+        }
+
+        /**
+         * Executes the task: repeatedly increments a random key of the map.
+         */
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < nbTimes; i++) {
+                map.incrementAndGet(keys[random.nextInt(keys.length)], 1);
+            }
+        }
+    }
 }
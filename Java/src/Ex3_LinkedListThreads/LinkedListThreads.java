@@ -1,25 +1,42 @@
 package Ex3_LinkedListThreads;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import EventLog.EventLog;
+import Metrics.Histogram;
+import Metrics.Metrics;
 
 /**
  * A multithreaded producer-consumer simulation using a shared LinkedList and condition variables.
  * Tasks are managed using an ExecutorService. The AddTask adds elements, while the RemoveTask removes them.
+ * <p>
+ * With the {@code lockfree} argument, the tasks use a {@link LockFreeQueue} instead of the
+ * lock-protected list, so adders and removers never wait for each other's lock.
+ * <p>
+ * With {@code set [containsPercent]}, the same executor harness instead benchmarks the
+ * {@link SortedListSet} variants on a read-heavy mix and reports ops/sec for each of them.
+ * <p>
+ * With {@code -Dthreads=virtual}, the tasks run on virtual threads instead of a cached
+ * pool of platform threads, and {@code -Dtasks=n} sets the number of add/remove task
+ * pairs (1000 by default).
  */
 public class LinkedListThreads {
 
     /**
      * Shared lock for synchronizing access to the linked list.
      */
-    private static final Lock lock = new ReentrantLock();
+    private static final Lock lock = Metrics.newLock("LinkedListThreads.lock");
 
     /**
      * Shared linked list used as the shared buffer.
@@ -29,43 +46,163 @@ public class LinkedListThreads {
     /**
      * Condition to signal that the list is not empty.
      */
-    private static final Condition notEmpty = lock.newCondition();
+    private static final Condition notEmpty = Metrics.newCondition(lock, "LinkedListThreads.notEmpty");
+
+    /**
+     * Size of the list after each addition and removal (with {@code -Dmetrics=true}).
+     */
+    private static final Histogram depth = Metrics.histogram("LinkedListThreads.depth");
+
+    /**
+     * Lock-free queue used instead of the list in {@code lockfree} mode.
+     */
+    private static final LockFreeQueue<String> queue = new LockFreeQueue<>();
+
+    /**
+     * Whether the tasks run on virtual threads ({@code -Dthreads=virtual})
+     * rather than on platform threads.
+     */
+    private static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("threads"));
+
+    /**
+     * Number of task pairs submitted by main ({@code -Dtasks=n}).
+     */
+    private static final int TASKS = Integer.getInteger("tasks", 1000);
+
+    /**
+     * Events logged by the tasks, printed asynchronously by the {@link EventLog} writer.
+     */
+    private static final EventLog.Event ADDED = new EventLog.Event("LinkedListThreads.added",
+            (sb, threadId, size, x) -> sb.append("An element was added: ").append(x));
+    private static final EventLog.Event REMOVED = new EventLog.Event("LinkedListThreads.removed",
+            (sb, threadId, size, x) -> sb.append("An element was removed: ").append(x));
 
     /**
      * Main method to simulate concurrent additions and removals to/from a shared list.
      *
-     * @param args command-line arguments (not used)
+     * @param args optional backend ({@code list}, {@code lockfree} or
+     *             {@code set [containsPercent]})
      * @throws InterruptedException if any thread is interrupted
      */
     public static void main(String[] args) throws InterruptedException {
 
+        if (args.length > 0 && args[0].equals("set")) {
+            int containsPercent = args.length > 1 ? Integer.parseInt(args[1]) : 95;
+            for (String kind : new String[] { "handoverhand", "optimistic", "lazy" }) {
+                benchmarkSet(kind, containsPercent);
+            }
+            return;
+        }
+
+        boolean lockFree = args.length > 0 && args[0].equals("lockfree");
+
         System.out.println("------------------ Start OF MAIN ------------------------");
 
         // Thread pool to manage AddTask and RemoveTask threads dynamically
-        ExecutorService executor = Executors.newCachedThreadPool();
+        long start = System.nanoTime();
+        ExecutorService executor = newExecutor();
 
         // Submit a mix of Add and Remove tasks
-        for (int i = 0; i < 1000; i++) {
-            executor.submit(new AddTask());
-            executor.submit(new RemoveTask());
+        for (int i = 0; i < TASKS; i++) {
+            if (lockFree) {
+                executor.submit(new QueueAddTask());
+                executor.submit(new QueueRemoveTask());
+            } else {
+                executor.submit(new AddTask());
+                executor.submit(new RemoveTask());
+            }
         }
 
         // Shutdown executor and wait for all tasks to complete
         executor.shutdown();
         while (!executor.isTerminated()) {
+            EventLog.flush();
             System.out.println("Main is sleeping...yielding control");
             Thread.yield();
         }
 
+        EventLog.flush();
         System.out.println("------------------ End OF MAIN ------------------------");
-        System.out.println("The final size of the list = " + ll.size());
+        System.out.println("The final size of the list = " + (lockFree ? queue.size() : ll.size()));
+        printFootprint(start);
+    }
+
+    /**
+     * Creates the executor running the tasks: one virtual thread per task with
+     * {@code -Dthreads=virtual}, otherwise a cached pool of platform threads.
+     *
+     * @return the new executor
+     */
+    private static ExecutorService newExecutor() {
+        return VIRTUAL_THREADS ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Prints the kind of threads used, the elapsed time, the peak number of
+     * live platform threads and the peak heap usage, to compare the footprint
+     * of the two kinds of threads.
+     *
+     * @param start the start time, from System.nanoTime()
+     */
+    private static void printFootprint(long start) {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%s threads: %d ms, peak %d platform threads, peak heap %d MB%n",
+                VIRTUAL_THREADS ? "Virtual" : "Platform", (System.nanoTime() - start) / 1_000_000,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakHeap >> 20);
+    }
+
+    /**
+     * Number of distinct values used by the set benchmark.
+     */
+    private static final int SET_RANGE = 1024;
+
+    /**
+     * Number of operations performed by each SetTask.
+     */
+    private static final int SET_OPERATIONS = 200_000;
+
+    /**
+     * Runs one SetTask per processor (at least 4) on a sorted list set of the
+     * given kind and prints the throughput.
+     *
+     * @param kind            the kind of set ({@code handoverhand}, {@code optimistic} or {@code lazy})
+     * @param containsPercent the percentage of contains operations, the rest
+     *                        being split evenly between add and remove
+     * @throws InterruptedException if the main thread is interrupted while waiting
+     */
+    private static void benchmarkSet(String kind, int containsPercent) throws InterruptedException {
+        SortedListSet set = SortedListSet.create(kind);
+
+        // Start half full so adds and removes both succeed about half the time
+        for (int v = 0; v < SET_RANGE; v += 2) {
+            set.add(v);
+        }
+
+        int nbThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = newExecutor();
+        long start = System.nanoTime();
+        for (int i = 0; i < nbThreads; i++) {
+            executor.submit(new SetTask(set, containsPercent));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        double opsPerSecond = (double) nbThreads * SET_OPERATIONS / elapsed * 1_000_000_000;
+        System.out.printf("%-12s %d threads, %d%% contains: %,.0f ops/sec%n", kind, nbThreads, containsPercent,
+                opsPerSecond);
     }
 
     /**
      * A task that adds a random number (as string) to the shared linked list.
      * Signals any waiting RemoveTask that the list is no longer empty.
      */
-    private static class AddTask extends Thread {
+    private static class AddTask implements Runnable {
 
         @Override
         public void run() {
@@ -73,7 +210,10 @@ public class LinkedListThreads {
             try {
                 int x = new Random().nextInt(100) + 1;
                 ll.add(String.valueOf(x));
-                System.out.println("An element was added: " + x);
+                depth.record(ll.size());
+                if (EventLog.INFO) {
+                    EventLog.log(ADDED, ll.size(), x);
+                }
                 Thread.sleep(5); // Simulate slight delay
                 notEmpty.signal(); // Wake up one waiting RemoveTask
             } catch (InterruptedException ex) {
@@ -89,7 +229,7 @@ public class LinkedListThreads {
      * A task that removes an element from the shared linked list.
      * Waits if the list is empty until an AddTask signals it.
      */
-    private static class RemoveTask extends Thread {
+    private static class RemoveTask implements Runnable {
 
         @Override
         public void run() {
@@ -99,7 +239,10 @@ public class LinkedListThreads {
                     notEmpty.await(); // Wait until notified that the list is not empty
                 }
                 String x = ll.remove();
-                System.out.println("An element was removed: " + x);
+                depth.record(ll.size());
+                if (EventLog.INFO) {
+                    EventLog.log(REMOVED, ll.size(), x);
+                }
             } catch (InterruptedException ex) {
                 Logger.getLogger(LinkedListThreads.class.getName()).log(Level.WARNING, "RemoveTask was interrupted", ex);
             } finally {
@@ -107,4 +250,77 @@ public class LinkedListThreads {
             }
         }
     }
+
+    /**
+     * A task that adds a random number (as string) to the lock-free queue.
+     * The insertion itself wakes up one parked QueueRemoveTask, if any.
+     */
+    private static class QueueAddTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                int x = new Random().nextInt(100) + 1;
+                Thread.sleep(5); // Simulate slight delay, without holding anything
+                queue.offer(String.valueOf(x));
+                if (EventLog.INFO) {
+                    EventLog.log(ADDED, -1, x);
+                }
+            } catch (InterruptedException ex) {
+                Logger.getLogger(LinkedListThreads.class.getName()).log(Level.SEVERE, null, ex);
+                System.out.println("---------- QueueAddTask was interrupted ----------");
+            }
+        }
+    }
+
+    /**
+     * A task that removes an element from the lock-free queue.
+     * Parks until an element is available.
+     */
+    private static class QueueRemoveTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                String x = queue.take();
+                if (EventLog.INFO) {
+                    EventLog.log(REMOVED, -1, x);
+                }
+            } catch (InterruptedException ex) {
+                Logger.getLogger(LinkedListThreads.class.getName()).log(Level.WARNING, "QueueRemoveTask was interrupted", ex);
+            }
+        }
+    }
+
+    /**
+     * A task that performs a random mix of contains, add and remove operations
+     * on a sorted list set.
+     */
+    private static class SetTask implements Runnable {
+
+        private final SortedListSet set;
+        private final int containsPercent;
+
+        SetTask(SortedListSet set, int containsPercent) {
+            this.set = set;
+            this.containsPercent = containsPercent;
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int addLimit = containsPercent + (100 - containsPercent) / 2;
+            for (int i = 0; i < SET_OPERATIONS; i++) {
+                int value = random.nextInt(SET_RANGE);
+                int op = random.nextInt(100);
+                if (op < containsPercent) {
+                    set.contains(value);
+                } else if (op < addLimit) {
+                    set.add(value);
+                } else {
+                    set.remove(value);
+                }
+            }
+        }
+    }
 }
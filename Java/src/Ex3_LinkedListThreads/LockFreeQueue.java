@@ -0,0 +1,207 @@
+package Ex3_LinkedListThreads;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A non-blocking linked queue (Michael and Scott algorithm).
+ * <p>
+ * The queue always starts with a dummy node. {@link #offer(Object)} links a
+ * new node after the tail with a compare-and-swap and then swings the tail;
+ * {@link #poll()} swings the head to the next node. A thread that finds the
+ * tail lagging behind helps move it forward, so no thread ever waits for
+ * another. All the links are read and written with volatile semantics, so an
+ * element is fully visible to the thread that dequeues it.
+ * <p>
+ * {@link #take()} blocks by parking the calling thread. Waiting threads are
+ * registered in their own lock-free queue and a producer unparks one of them
+ * after each insertion, so adders and removers never share a lock.
+ *
+ * @param <E> the type of the elements
+ */
+class LockFreeQueue<E> {
+
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle NEXT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(LockFreeQueue.class, "head", Node.class);
+            TAIL = lookup.findVarHandle(LockFreeQueue.class, "tail", Node.class);
+            NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * A node of the list. The item is written before the node is linked and
+     * cleared once the node becomes the dummy head.
+     */
+    private static final class Node<E> {
+        volatile E item;
+        volatile Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+
+    private volatile Node<E> head;
+    private volatile Node<E> tail;
+
+    // Threads parked in take()
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructs an empty queue.
+     */
+    LockFreeQueue() {
+        Node<E> dummy = new Node<>(null);
+        head = dummy;
+        tail = dummy;
+    }
+
+    /**
+     * Inserts an element at the tail of the queue and wakes up one waiting
+     * taker, if any.
+     *
+     * @param e the element to add
+     * @throws NullPointerException if the element is null
+     */
+    void offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        Node<E> node = new Node<>(e);
+        while (true) {
+            Node<E> t = tail;
+            Node<E> next = t.next;
+            if (t != tail) {
+                continue;
+            }
+            if (next == null) {
+                // Tail is the last node: try to link the new node after it
+                if (NEXT.compareAndSet(t, null, node)) {
+                    TAIL.compareAndSet(this, t, node);
+                    break;
+                }
+            } else {
+                // Tail is lagging behind: help move it forward
+                TAIL.compareAndSet(this, t, next);
+            }
+        }
+        signalWaiter();
+    }
+
+    /**
+     * Removes the element at the head of the queue.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    E poll() {
+        while (true) {
+            Node<E> h = head;
+            Node<E> t = tail;
+            Node<E> first = h.next;
+            if (h != head) {
+                continue;
+            }
+            if (h == t) {
+                if (first == null) {
+                    return null;
+                }
+                // An element is being added: help move the tail forward
+                TAIL.compareAndSet(this, t, first);
+            } else {
+                E item = first.item;
+                if (HEAD.compareAndSet(this, h, first)) {
+                    // The first node becomes the new dummy
+                    first.item = null;
+                    return item;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the element at the head of the queue, parking the calling
+     * thread until one is available.
+     *
+     * @return the element
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    E take() throws InterruptedException {
+        E item = poll();
+        if (item != null) {
+            return item;
+        }
+
+        Thread current = Thread.currentThread();
+        while (true) {
+            // Register before checking again, so an element added meanwhile is
+            // either seen here or followed by an unpark of this thread
+            waiters.add(current);
+            item = poll();
+            if (item != null) {
+                if (!waiters.remove(current)) {
+                    // A producer already picked this thread: pass its wakeup on
+                    if (!isEmpty()) {
+                        signalWaiter();
+                    }
+                }
+                return item;
+            }
+
+            LockSupport.park(this);
+
+            if (Thread.interrupted()) {
+                if (!waiters.remove(current) && !isEmpty()) {
+                    signalWaiter();
+                }
+                throw new InterruptedException();
+            }
+            waiters.remove(current);
+        }
+    }
+
+    /**
+     * Returns true if the queue has no element.
+     *
+     * @return true if the queue is empty
+     */
+    boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * Returns the number of elements. This walks the whole list, so it is
+     * only meant for reporting.
+     *
+     * @return the element count
+     */
+    int size() {
+        int n = 0;
+        for (Node<E> node = head.next; node != null; node = node.next) {
+            if (node.item != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Unparks one waiting taker, if any.
+     */
+    private void signalWaiter() {
+        Thread waiter = waiters.poll();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package Ex3_LinkedListThreads;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent set of integers kept in a sorted linked list.
+ * <p>
+ * Every implementation uses two sentinel nodes holding
+ * {@link Integer#MIN_VALUE} and {@link Integer#MAX_VALUE}, so those two values
+ * cannot be stored. They differ in how they synchronize:
+ * <ul>
+ * <li>{@link HandOverHand}: each node has its own lock and a traversal holds
+ * at most two locks at a time, releasing the previous one after acquiring the
+ * next one (lock coupling)</li>
+ * <li>{@link Optimistic}: a traversal takes no lock; the two nodes to update
+ * are locked at the end and the list is walked again to check that they are
+ * still reachable and adjacent</li>
+ * <li>{@link Lazy}: a removed node is first marked, then unlinked, so checking
+ * the nodes needs no second walk and {@code contains} takes no lock at all
+ * (it is wait-free)</li>
+ * </ul>
+ */
+interface SortedListSet {
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value the value to add
+     * @return true if the value was not already present
+     */
+    boolean add(int value);
+
+    /**
+     * Removes a value from the set.
+     *
+     * @param value the value to remove
+     * @return true if the value was present
+     */
+    boolean remove(int value);
+
+    /**
+     * Checks whether a value is in the set.
+     *
+     * @param value the value to look for
+     * @return true if the value is present
+     */
+    boolean contains(int value);
+
+    /**
+     * Creates a set of the given kind.
+     *
+     * @param kind one of {@code handoverhand}, {@code optimistic} or {@code lazy}
+     * @return a new empty set
+     * @throws IllegalArgumentException if the kind is unknown
+     */
+    static SortedListSet create(String kind) {
+        return switch (kind) {
+            case "handoverhand" -> new HandOverHand();
+            case "optimistic" -> new Optimistic();
+            case "lazy" -> new Lazy();
+            default -> throw new IllegalArgumentException("Unknown set kind: " + kind);
+        };
+    }
+
+    /**
+     * A node of the list. The links are volatile because the optimistic and
+     * lazy variants walk the list without holding any lock.
+     */
+    final class Node {
+        final int key;
+        volatile Node next;
+        volatile boolean marked;
+        final Lock lock = new ReentrantLock();
+
+        Node(int key) {
+            this.key = key;
+        }
+
+        Node(int key, Node next) {
+            this.key = key;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A sorted list set using hand-over-hand locking.
+     */
+    final class HandOverHand implements SortedListSet {
+
+        private final Node head = new Node(Integer.MIN_VALUE, new Node(Integer.MAX_VALUE));
+
+        @Override
+        public boolean add(int value) {
+            head.lock.lock();
+            Node pred = head;
+            try {
+                Node curr = pred.next;
+                curr.lock.lock();
+                try {
+                    while (curr.key < value) {
+                        pred.lock.unlock();
+                        pred = curr;
+                        curr = curr.next;
+                        curr.lock.lock();
+                    }
+                    if (curr.key == value) {
+                        return false;
+                    }
+                    pred.next = new Node(value, curr);
+                    return true;
+                } finally {
+                    curr.lock.unlock();
+                }
+            } finally {
+                pred.lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean remove(int value) {
+            head.lock.lock();
+            Node pred = head;
+            try {
+                Node curr = pred.next;
+                curr.lock.lock();
+                try {
+                    while (curr.key < value) {
+                        pred.lock.unlock();
+                        pred = curr;
+                        curr = curr.next;
+                        curr.lock.lock();
+                    }
+                    if (curr.key != value) {
+                        return false;
+                    }
+                    pred.next = curr.next;
+                    return true;
+                } finally {
+                    curr.lock.unlock();
+                }
+            } finally {
+                pred.lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean contains(int value) {
+            head.lock.lock();
+            Node pred = head;
+            try {
+                Node curr = pred.next;
+                curr.lock.lock();
+                try {
+                    while (curr.key < value) {
+                        pred.lock.unlock();
+                        pred = curr;
+                        curr = curr.next;
+                        curr.lock.lock();
+                    }
+                    return curr.key == value;
+                } finally {
+                    curr.lock.unlock();
+                }
+            } finally {
+                pred.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A sorted list set using optimistic synchronization.
+     */
+    final class Optimistic implements SortedListSet {
+
+        private final Node head = new Node(Integer.MIN_VALUE, new Node(Integer.MAX_VALUE));
+
+        @Override
+        public boolean add(int value) {
+            while (true) {
+                Node pred = head;
+                Node curr = pred.next;
+                while (curr.key < value) {
+                    pred = curr;
+                    curr = curr.next;
+                }
+                pred.lock.lock();
+                curr.lock.lock();
+                try {
+                    if (validate(pred, curr)) {
+                        if (curr.key == value) {
+                            return false;
+                        }
+                        pred.next = new Node(value, curr);
+                        return true;
+                    }
+                } finally {
+                    curr.lock.unlock();
+                    pred.lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public boolean remove(int value) {
+            while (true) {
+                Node pred = head;
+                Node curr = pred.next;
+                while (curr.key < value) {
+                    pred = curr;
+                    curr = curr.next;
+                }
+                pred.lock.lock();
+                curr.lock.lock();
+                try {
+                    if (validate(pred, curr)) {
+                        if (curr.key != value) {
+                            return false;
+                        }
+                        pred.next = curr.next;
+                        return true;
+                    }
+                } finally {
+                    curr.lock.unlock();
+                    pred.lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public boolean contains(int value) {
+            while (true) {
+                Node pred = head;
+                Node curr = pred.next;
+                while (curr.key < value) {
+                    pred = curr;
+                    curr = curr.next;
+                }
+                pred.lock.lock();
+                curr.lock.lock();
+                try {
+                    if (validate(pred, curr)) {
+                        return curr.key == value;
+                    }
+                } finally {
+                    curr.lock.unlock();
+                    pred.lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Checks, with both nodes locked, that pred is still reachable from the
+         * head and still points to curr.
+         */
+        private boolean validate(Node pred, Node curr) {
+            Node node = head;
+            while (node.key <= pred.key) {
+                if (node == pred) {
+                    return pred.next == curr;
+                }
+                node = node.next;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A sorted list set using lazy synchronization.
+     */
+    final class Lazy implements SortedListSet {
+
+        private final Node head = new Node(Integer.MIN_VALUE, new Node(Integer.MAX_VALUE));
+
+        @Override
+        public boolean add(int value) {
+            while (true) {
+                Node pred = head;
+                Node curr = pred.next;
+                while (curr.key < value) {
+                    pred = curr;
+                    curr = curr.next;
+                }
+                pred.lock.lock();
+                curr.lock.lock();
+                try {
+                    if (validate(pred, curr)) {
+                        if (curr.key == value) {
+                            return false;
+                        }
+                        pred.next = new Node(value, curr);
+                        return true;
+                    }
+                } finally {
+                    curr.lock.unlock();
+                    pred.lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public boolean remove(int value) {
+            while (true) {
+                Node pred = head;
+                Node curr = pred.next;
+                while (curr.key < value) {
+                    pred = curr;
+                    curr = curr.next;
+                }
+                pred.lock.lock();
+                curr.lock.lock();
+                try {
+                    if (validate(pred, curr)) {
+                        if (curr.key != value) {
+                            return false;
+                        }
+                        // Logical removal first, then physical removal
+                        curr.marked = true;
+                        pred.next = curr.next;
+                        return true;
+                    }
+                } finally {
+                    curr.lock.unlock();
+                    pred.lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public boolean contains(int value) {
+            Node curr = head;
+            while (curr.key < value) {
+                curr = curr.next;
+            }
+            return curr.key == value && !curr.marked;
+        }
+
+        /**
+         * Checks, with both nodes locked, that neither node was removed and
+         * that pred still points to curr.
+         */
+        private boolean validate(Node pred, Node curr) {
+            return !pred.marked && !curr.marked && pred.next == curr;
+        }
+    }
+}
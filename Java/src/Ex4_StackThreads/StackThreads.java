@@ -2,15 +2,25 @@ package Ex4_StackThreads;
 
 import static java.lang.Thread.sleep;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import EventLog.EventLog;
+import Metrics.Histogram;
+import Metrics.Metrics;
 
 /**
  * Demonstrates a thread-safe Stack implementation using LinkedList
@@ -19,30 +29,64 @@ import java.util.logging.Logger;
  * Synchronization is achieved using ReentrantLock and Condition to handle
  * blocking behavior for pop when the stack is empty.
  * <p>
+ * With the {@code lockfree} argument, the same tasks use a {@link TreiberStack}
+ * instead, a lock-free stack with elimination backoff.
+ * <p>
+ * With {@code batch [lock|lockfree]}, main instead measures the cost per element
+ * of the bulk operations at batch sizes 1, 16 and 256.
+ * <p>
+ * With {@code -Dthreads=virtual}, the tasks run on virtual threads instead of a
+ * cached pool of platform threads, and {@code -Dtasks=n} sets the number of
+ * pop/push task pairs (1000 by default).
  */
 public class StackThreads {
 
     /**
      * Shared stack instance used by all threads.
      */
-    private static Stack s = new Stack();
+    static ConcurrentStack<Object> s = new Stack();
+
+    /**
+     * Whether the tasks run on virtual threads ({@code -Dthreads=virtual})
+     * rather than on platform threads.
+     */
+    private static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("threads"));
+
+    /**
+     * Number of task pairs submitted by main ({@code -Dtasks=n}).
+     */
+    private static final int TASKS = Integer.getInteger("tasks", 1000);
 
     /**
      * Main entry point.
      * Starts multiple push and pop threads via an ExecutorService.
      * Waits for all tasks to complete before printing final stack size.
      *
-     * @param args command-line arguments (not used)
+     * @param args optional backend ({@code lock} or {@code lockfree}), or
+     *             {@code batch} followed by the backend
      * @throws InterruptedException if the main thread is interrupted while waiting
      */
     public static void main(String[] args) throws InterruptedException {
 
+        if (args.length > 0 && args[0].equals("batch")) {
+            boolean lockFree = args.length > 1 && args[1].equals("lockfree");
+            for (int batchSize : new int[] { 1, 16, 256 }) {
+                benchmarkBatch(lockFree ? new TreiberStack<>() : new Stack(), batchSize);
+            }
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("lockfree")) {
+            s = new TreiberStack<>();
+        }
+
         // ExecutorService to manage thread pool for push/pop tasks
-        ExecutorService executor = Executors.newCachedThreadPool();
+        long start = System.nanoTime();
+        ExecutorService executor = newExecutor();
 
         int c = 1;
-        // Submit 1000 pop and push tasks alternately
-        while (c < 1000) {
+        // Submit TASKS pop and push tasks alternately
+        while (c < TASKS) {
             executor.submit(new PopTask());
             // executor.submit(new IsEmptyTask()); // Uncomment if you want to test isEmpty
             // in parallel
@@ -55,12 +99,74 @@ public class StackThreads {
 
         // Wait for all tasks to finish executing
         while (!executor.isTerminated()) {
+            EventLog.flush();
             System.out.println("Main - Executor not terminated. The current size is " + s.size());
             Thread.yield(); // Yield to other threads while waiting
         }
 
+        EventLog.flush();
         System.out.println("---------END OF MAIN --------------");
         System.out.println("The FINAL size is  " + s.size());
+        printFootprint(start);
+    }
+
+    /**
+     * Creates the executor running the tasks: one virtual thread per task with
+     * {@code -Dthreads=virtual}, otherwise a cached pool of platform threads.
+     *
+     * @return the new executor
+     */
+    private static ExecutorService newExecutor() {
+        return VIRTUAL_THREADS ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Prints the kind of threads used, the elapsed time, the peak number of
+     * live platform threads and the peak heap usage, to compare the footprint
+     * of the two kinds of threads.
+     *
+     * @param start the start time, from System.nanoTime()
+     */
+    private static void printFootprint(long start) {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%s threads: %d ms, peak %d platform threads, peak heap %d MB%n",
+                VIRTUAL_THREADS ? "Virtual" : "Platform", (System.nanoTime() - start) / 1_000_000,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakHeap >> 20);
+    }
+
+    /**
+     * Number of elements pushed (and popped) by each BatchTask.
+     */
+    private static final int BATCH_ELEMENTS = 1 << 20;
+
+    /**
+     * Runs one BatchTask per processor (at least 4) moving elements through the
+     * stack in batches, and prints the average cost of moving one element.
+     *
+     * @param stack     the stack to use
+     * @param batchSize the number of elements per pushAll/popN call
+     * @throws InterruptedException if the main thread is interrupted while waiting
+     */
+    private static void benchmarkBatch(ConcurrentStack<Object> stack, int batchSize) throws InterruptedException {
+        int nbThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = newExecutor();
+        long start = System.nanoTime();
+        for (int i = 0; i < nbThreads; i++) {
+            executor.submit(new BatchTask(stack, batchSize));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        // Each element is pushed once and popped once
+        long operations = 2L * nbThreads * BATCH_ELEMENTS;
+        System.out.printf("%s, batch size %3d: %.1f ns per element (%d threads)%n",
+                stack.getClass().getSimpleName(), batchSize, (double) elapsed / operations, nbThreads);
     }
 
     /**
@@ -70,10 +176,91 @@ public class StackThreads {
         this.s = new Stack();
     }
 
+    /**
+     * The operations of a stack shared by the push and pop tasks.
+     *
+     * @param <E> the type of the elements
+     */
+    interface ConcurrentStack<E> {
+
+        /**
+         * Pushes an element onto the top of the stack.
+         *
+         * @param e the element to push
+         */
+        void push(E e);
+
+        /**
+         * Pops the top element, waiting until the stack is not empty.
+         *
+         * @return the popped element, or null if interrupted during wait
+         */
+        E pop();
+
+        /**
+         * Pops the top element, waiting at most the given time until the stack
+         * is not empty.
+         *
+         * @param timeout the maximum time to wait
+         * @param unit    the unit of the timeout
+         * @return the popped element, or null if the time elapsed first
+         * @throws InterruptedException if interrupted while waiting
+         */
+        E pop(long timeout, TimeUnit unit) throws InterruptedException;
+
+        /**
+         * Pops the top element without waiting.
+         *
+         * @return the popped element, or null if the stack is empty
+         */
+        E tryPop();
+
+        /**
+         * Pushes all the elements in one synchronized step, in iteration
+         * order, so the last element ends up on top.
+         *
+         * @param c the elements to push
+         */
+        void pushAll(Collection<? extends E> c);
+
+        /**
+         * Pops up to {@code max} elements in one synchronized step, without
+         * waiting.
+         *
+         * @param max the maximum number of elements to pop, 0 or more
+         * @return the popped elements, top first (empty if the stack is empty
+         *         or max is 0)
+         * @throws IllegalArgumentException if max is negative
+         */
+        List<E> popN(int max);
+
+        /**
+         * Pops all the elements in one synchronized step, without waiting.
+         *
+         * @param c the collection receiving the elements, top first
+         * @return the number of elements popped
+         */
+        int drainTo(Collection<? super E> c);
+
+        /**
+         * Checks if the stack is empty.
+         *
+         * @return true if the stack is empty
+         */
+        boolean isEmpty();
+
+        /**
+         * Returns the number of elements.
+         *
+         * @return the element count
+         */
+        int size();
+    }
+
     /**
      * Thread task for popping an element from the stack.
      */
-    private static class PopTask extends Thread {
+    private static class PopTask implements Runnable {
         @Override
         public void run() {
             s.pop();
@@ -83,17 +270,56 @@ public class StackThreads {
     /**
      * Thread task for pushing an element ("A") onto the stack.
      */
-    private static class PushTask extends Thread {
+    private static class PushTask implements Runnable {
         @Override
         public void run() {
             s.push("A");
         }
     }
 
+    /**
+     * Thread task that pushes a batch of elements and pops a batch back, until
+     * it has moved BATCH_ELEMENTS elements each way.
+     */
+    private static class BatchTask implements Runnable {
+
+        private final ConcurrentStack<Object> stack;
+        private final int batchSize;
+
+        BatchTask(ConcurrentStack<Object> stack, int batchSize) {
+            this.stack = stack;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+            List<Object> batch = Collections.nCopies(batchSize, "A");
+            int pushed = 0;
+            int popped = 0;
+            while (pushed < BATCH_ELEMENTS) {
+                stack.pushAll(batch);
+                pushed += batchSize;
+                popped += stack.popN(batchSize).size();
+            }
+            // Other threads may have taken some of ours: pop the same number back
+            while (popped < pushed) {
+                try {
+                    popped += stack.popN(pushed - popped).size();
+                    if (popped < pushed && stack.pop(1, TimeUnit.MILLISECONDS) != null) {
+                        popped++;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
     /**
      * Thread task that checks whether the stack is empty and prints the result.
      */
-    private static class IsEmptyTask extends Thread {
+    private static class IsEmptyTask implements Runnable {
         @Override
         public void run() {
             if (s.isEmpty())
@@ -109,10 +335,24 @@ public class StackThreads {
      * Synchronizes push and pop methods using ReentrantLock and Condition.
      * The pop method blocks when the stack is empty until an element is pushed.
      */
-    private static class Stack extends LinkedList {
+    static class Stack extends LinkedList implements ConcurrentStack<Object> {
 
-        private final Lock lock = new ReentrantLock();
-        private final Condition notEmpty = lock.newCondition();
+        private final Lock lock = Metrics.newLock("StackThreads.lock");
+        private final Condition notEmpty = Metrics.newCondition(lock, "StackThreads.notEmpty");
+
+        // Size of the stack after each push and pop (with -Dmetrics=true)
+        private final Histogram depth = Metrics.histogram("StackThreads.depth");
+
+        // Events logged by push and pop (printed asynchronously by the EventLog writer)
+        private static final EventLog.Event PUSHED = new EventLog.Event("StackThreads.push",
+                (sb, threadId, size, arg) -> sb.append("push").append(System.lineSeparator())
+                        .append("push - The size is  ").append(size));
+        private static final EventLog.Event POPPED = new EventLog.Event("StackThreads.pop",
+                (sb, threadId, size, arg) -> sb.append("pop DONE").append(System.lineSeparator())
+                        .append("pop - The size is  ").append(size));
+        private static final EventLog.Event WAITING = new EventLog.Event("StackThreads.wait",
+                (sb, threadId, size, arg) -> sb.append("POP - Thread ID: ").append(threadId).append(System.lineSeparator())
+                        .append("Waiting another thread to push an element"));
 
         /**
          * Pushes an element onto the top of the stack.
@@ -125,8 +365,10 @@ public class StackThreads {
             try {
                 lock.lock();
                 super.push(e);
-                System.out.println("push");
-                System.out.println("push - The size is  " + s.size());
+                depth.record(super.size());
+                if (EventLog.INFO) {
+                    EventLog.log(PUSHED, super.size(), null);
+                }
 
                 // Signal any waiting pop threads that stack is not empty
                 notEmpty.signal();
@@ -145,14 +387,14 @@ public class StackThreads {
         @Override
         public Object pop() {
             Object o = null;
-            long threadId = Thread.currentThread().threadId();
             try {
                 lock.lock();
 
                 // Use while loop to avoid spurious wakeups and race conditions
                 while (s.isEmpty()) {
-                    System.out.println("POP - Thread ID: " + threadId);
-                    System.out.println("Waiting another thread to push an element");
+                    if (EventLog.DEBUG) {
+                        EventLog.log(WAITING, 0, null);
+                    }
                     try {
                         // Wait releases lock and suspends the thread until signaled
                         notEmpty.await();
@@ -166,11 +408,13 @@ public class StackThreads {
 
                 try {
                     o = super.pop();
+                    depth.record(super.size());
                 } catch (NoSuchElementException ex) {
                     System.out.println("Exception in pop: " + ex);
                 }
-                System.out.println("pop DONE");
-                System.out.println("pop - The size is  " + s.size());
+                if (EventLog.INFO) {
+                    EventLog.log(POPPED, super.size(), null);
+                }
 
             } finally {
                 lock.unlock();
@@ -178,6 +422,114 @@ public class StackThreads {
             return o;
         }
 
+        /**
+         * Pops the top element, waiting at most the given time for a push.
+         *
+         * @param timeout the maximum time to wait
+         * @param unit    the unit of the timeout
+         * @return the popped element, or null if the time elapsed first
+         * @throws InterruptedException if interrupted while waiting
+         */
+        @Override
+        public Object pop(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (super.isEmpty()) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                Object o = super.pop();
+                depth.record(super.size());
+                return o;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Pops the top element if there is one.
+         *
+         * @return the popped element, or null if the stack is empty
+         */
+        @Override
+        public Object tryPop() {
+            lock.lock();
+            try {
+                return super.isEmpty() ? null : super.pop();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Pushes all the elements under a single lock acquisition and wakes
+         * up one waiting pop thread per element.
+         *
+         * @param c the elements to push
+         */
+        @Override
+        @SuppressWarnings("unchecked") // Stack extends the raw LinkedList of the exercise
+        public void pushAll(Collection<?> c) {
+            lock.lock();
+            try {
+                for (Object e : c) {
+                    super.push(e);
+                    notEmpty.signal();
+                }
+                depth.record(super.size());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Pops up to {@code max} elements under a single lock acquisition.
+         *
+         * @param max the maximum number of elements to pop, 0 or more
+         * @return the popped elements, top first
+         * @throws IllegalArgumentException if max is negative
+         */
+        @Override
+        public List<Object> popN(int max) {
+            if (max < 0) {
+                throw new IllegalArgumentException("Negative pop count: " + max);
+            }
+            lock.lock();
+            try {
+                int n = Math.min(max, super.size());
+                List<Object> popped = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    popped.add(super.pop());
+                }
+                depth.record(super.size());
+                return popped;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Pops all the elements under a single lock acquisition.
+         *
+         * @param c the collection receiving the elements, top first
+         * @return the number of elements popped
+         */
+        @Override
+        public int drainTo(Collection<? super Object> c) {
+            lock.lock();
+            try {
+                int n = super.size();
+                c.addAll(this);
+                super.clear();
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
         /**
          * Checks if the stack is empty in a thread-safe manner.
          * Adds a 2-second sleep to simulate processing delay.
@@ -0,0 +1,373 @@
+package Ex4_StackThreads;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free stack (Treiber algorithm) with elimination backoff.
+ * <p>
+ * The top of the stack is a single AtomicReference updated with
+ * compare-and-swap. When that compare-and-swap fails because of contention,
+ * the thread backs off to a random slot of an elimination array where a push
+ * and a pop meeting each other exchange the element directly and cancel out,
+ * without touching the top at all. The more threads there are, the more
+ * pairs meet, so throughput grows with the number of threads instead of
+ * collapsing on the top pointer.
+ * <p>
+ * {@link #pop()} blocks by parking the calling thread until an element is
+ * pushed; {@link #tryPop()} never blocks. The bulk operations move a whole
+ * batch with a single compare-and-swap on the top.
+ *
+ * @param <E> the type of the elements
+ */
+class TreiberStack<E> implements StackThreads.ConcurrentStack<E> {
+
+    /**
+     * Number of spins an offer waits in the elimination array for a partner.
+     */
+    private static final int ELIMINATION_SPINS = 64;
+
+    /**
+     * Item offered by a pop in the elimination array.
+     */
+    private static final Object POP = new Object();
+
+    /**
+     * An immutable node. Each node knows the size of the stack it tops, so
+     * {@link #size()} does not walk the stack.
+     */
+    private static final class Node<E> {
+        final E item;
+        final Node<E> next;
+        final int size;
+
+        Node(E item, Node<E> next) {
+            this.item = item;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+        }
+    }
+
+    /**
+     * An operation waiting in the elimination array.
+     */
+    private static final class Offer {
+        final Object item;
+        volatile Object response;
+
+        Offer(Object item) {
+            this.item = item;
+        }
+    }
+
+    private final AtomicReference<Node<E>> top = new AtomicReference<>();
+    private final AtomicReferenceArray<Offer> elimination;
+
+    // Threads parked in pop()
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructs an empty stack with one elimination slot per two processors.
+     */
+    TreiberStack() {
+        elimination = new AtomicReferenceArray<>(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * Pushes an element onto the top of the stack and wakes up one waiting
+     * pop, if any.
+     *
+     * @param e the element to push
+     * @throws NullPointerException if the element is null
+     */
+    @Override
+    public void push(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            Node<E> t = top.get();
+            if (top.compareAndSet(t, new Node<>(e, t))) {
+                break;
+            }
+            // Contention on the top: try to meet a pop instead
+            if (exchange(e) == POP) {
+                return;
+            }
+        }
+        signalWaiter();
+    }
+
+    /**
+     * Pops the top element, parking the calling thread until one is available.
+     *
+     * @return the popped element, or null if interrupted during wait
+     */
+    @Override
+    public E pop() {
+        return awaitPop(false, 0);
+    }
+
+    /**
+     * Pops the top element, parking the calling thread at most the given time
+     * until one is available.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return the popped element, or null if the time elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Override
+    public E pop(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        E item = awaitPop(true, unit.toNanos(timeout));
+        if (item == null && Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return item;
+    }
+
+    /**
+     * Pushes all the elements with a single compare-and-swap: the new nodes
+     * are chained privately and then published on top at once. If another
+     * thread changed the top meanwhile, the chain is rebuilt on the new top.
+     *
+     * @param c the elements to push
+     * @throws NullPointerException if an element is null
+     */
+    @Override
+    public void pushAll(Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return;
+        }
+        while (true) {
+            Node<E> t = top.get();
+            Node<E> chain = t;
+            for (E e : c) {
+                if (e == null) {
+                    throw new NullPointerException();
+                }
+                chain = new Node<>(e, chain);
+            }
+            if (top.compareAndSet(t, chain)) {
+                break;
+            }
+        }
+        for (int i = c.size(); i > 0 && !waiters.isEmpty(); i--) {
+            signalWaiter();
+        }
+    }
+
+    /**
+     * Pops up to {@code max} elements with a single compare-and-swap that
+     * moves the top down by that many nodes.
+     *
+     * @param max the maximum number of elements to pop, 0 or more
+     * @return the popped elements, top first
+     * @throws IllegalArgumentException if max is negative
+     */
+    @Override
+    public List<E> popN(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Negative pop count: " + max);
+        }
+        while (true) {
+            Node<E> t = top.get();
+            if (t == null || max == 0) {
+                return new ArrayList<>(0);
+            }
+            int n = Math.min(max, t.size);
+            Node<E> newTop = t;
+            for (int i = 0; i < n; i++) {
+                newTop = newTop.next;
+            }
+            if (top.compareAndSet(t, newTop)) {
+                List<E> popped = new ArrayList<>(n);
+                for (Node<E> node = t; node != newTop; node = node.next) {
+                    popped.add(node.item);
+                }
+                return popped;
+            }
+        }
+    }
+
+    /**
+     * Pops all the elements with a single compare-and-swap that empties the
+     * stack.
+     *
+     * @param c the collection receiving the elements, top first
+     * @return the number of elements popped
+     */
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        Node<E> t = top.getAndSet(null);
+        if (t == null) {
+            return 0;
+        }
+        for (Node<E> node = t; node != null; node = node.next) {
+            c.add(node.item);
+        }
+        return t.size;
+    }
+
+    /**
+     * Pops the top element without blocking.
+     *
+     * @return the popped element, or null if the stack is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E tryPop() {
+        while (true) {
+            Node<E> t = top.get();
+            if (t == null) {
+                return null;
+            }
+            if (top.compareAndSet(t, t.next)) {
+                return t.item;
+            }
+            // Contention on the top: try to meet a push instead
+            Object item = exchange(POP);
+            if (item != null && item != POP) {
+                return (E) item;
+            }
+        }
+    }
+
+    /**
+     * Checks if the stack is empty.
+     *
+     * @return true if the stack is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return top.get() == null;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return the element count
+     */
+    @Override
+    public int size() {
+        Node<E> t = top.get();
+        return t == null ? 0 : t.size;
+    }
+
+    /**
+     * Pops the top element, parking until one is available or the deadline
+     * passes. Returns null, keeping the interrupt status, if interrupted.
+     *
+     * @param timed true if the wait is limited
+     * @param nanos the maximum time to wait, if timed
+     * @return the popped element, or null on timeout or interruption
+     */
+    private E awaitPop(boolean timed, long nanos) {
+        E item = tryPop();
+        if (item != null) {
+            return item;
+        }
+
+        long deadline = timed ? System.nanoTime() + nanos : 0;
+        Thread current = Thread.currentThread();
+        while (true) {
+            // Register before checking again, so an element pushed meanwhile is
+            // either seen here or followed by an unpark of this thread
+            waiters.add(current);
+            item = tryPop();
+            if (item != null) {
+                leave(current);
+                return item;
+            }
+
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    leave(current);
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+
+            if (current.isInterrupted()) {
+                leave(current);
+                return null;
+            }
+            waiters.remove(current);
+        }
+    }
+
+    /**
+     * Unregisters a waiting thread. If a push already picked it, the wakeup
+     * is passed on to another waiter.
+     */
+    private void leave(Thread current) {
+        if (!waiters.remove(current) && !isEmpty()) {
+            signalWaiter();
+        }
+    }
+
+    /**
+     * Waits briefly in a random slot of the elimination array for an
+     * operation of the opposite kind.
+     *
+     * @param item the pushed element, or {@link #POP}
+     * @return the partner's item (an element for a pop, {@link #POP} for a
+     *         push), or null if no partner showed up
+     */
+    private Object exchange(Object item) {
+        int index = ThreadLocalRandom.current().nextInt(elimination.length());
+        Offer other = elimination.get(index);
+
+        if (other != null) {
+            // Someone is waiting: take its offer if it is of the opposite kind
+            if ((other.item == POP) != (item == POP) && elimination.compareAndSet(index, other, null)) {
+                other.response = item;
+                return other.item;
+            }
+            return null;
+        }
+
+        Offer mine = new Offer(item);
+        if (!elimination.compareAndSet(index, null, mine)) {
+            return null;
+        }
+        for (int i = 0; i < ELIMINATION_SPINS; i++) {
+            if (mine.response != null) {
+                return mine.response;
+            }
+            Thread.onSpinWait();
+        }
+        if (elimination.compareAndSet(index, mine, null)) {
+            return null;
+        }
+        // A partner took the offer: its response is on its way
+        while (mine.response == null) {
+            Thread.onSpinWait();
+        }
+        return mine.response;
+    }
+
+    /**
+     * Unparks one waiting pop, if any.
+     */
+    private void signalWaiter() {
+        Thread waiter = waiters.poll();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
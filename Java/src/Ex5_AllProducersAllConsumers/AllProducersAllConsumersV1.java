@@ -1,12 +1,20 @@
 package Ex5_AllProducersAllConsumers;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import EventLog.EventLog;
+import Metrics.Histogram;
+import Metrics.Metrics;
+import Overflow.AdaptiveCapacity;
+import Overflow.OverflowPolicy;
 
 /**
  * This class demonstrates a producer-consumer system where producers
@@ -16,18 +24,68 @@ import java.util.concurrent.locks.ReentrantLock;
  * It uses a turn-based system where producers and consumers take turns
  * to act collectively, enhancing group-level cooperation logic.
  *
- * Queue size is limited to 10 elements.
+ * Queue size is limited to 10 elements by default. A turn moves one element
+ * by default, or a batch of elements (up to the whole capacity) when configured.
+ *
+ * The capacity is set with -Dcapacity=n, or -Dcapacity=min..max to adapt it
+ * to the load, and what producers do when the queue is full with
+ * -Doverflow=block|timeout|drop-newest|drop-oldest|caller-runs (see
+ * AdaptiveCapacity and OverflowPolicy).
+ *
+ * With -Dthreads=virtual, the producers and consumers run on virtual threads
+ * instead of a cached pool of platform threads, and -Dtasks=n sets the number
+ * of producer/consumer pairs (100 by default).
  */
 public class AllProducersAllConsumersV1 {
 
     // Shared queue
     public static MyQueue q = new MyQueue();
 
+    // Shared sharded queue, used instead of q in sharded mode
+    public static ShardedQueue<Date> sq = null;
+
+    // Whether the tasks run on virtual threads (-Dthreads=virtual) rather than platform threads
+    private static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("threads"));
+
+    // Number of producer/consumer pairs submitted by main (-Dtasks=n)
+    private static final int TASKS = Integer.getInteger("tasks", 100);
+
+    // Number of producers that are done
+    private static final AtomicInteger producersDone = new AtomicInteger();
+
+    // Events logged by the producers and consumers (printed asynchronously by the EventLog writer)
+    private static final EventLog.Event ADDED = new EventLog.Event("AllProducersAllConsumersV1.added",
+            (sb, threadId, size, d) -> sb.append(d).append(" is added by Producer ").append(threadId));
+    private static final EventLog.Event ADDED_TO_SHARD = new EventLog.Event("AllProducersAllConsumersV1.addedToShard",
+            (sb, threadId, shard, d) -> sb.append(d).append(" is added by Producer ").append(threadId)
+                    .append(" to shard ").append(shard));
+    private static final EventLog.Event REMOVED = new EventLog.Event("AllProducersAllConsumersV1.removed",
+            (sb, threadId, size, d) -> sb.append(d).append(" is removed by Consumer ").append(threadId));
+    private static final EventLog.Event DROPPED = new EventLog.Event("AllProducersAllConsumersV1.dropped",
+            (sb, threadId, size, d) -> sb.append(d).append(" is dropped"));
+    private static final EventLog.Event CONSUMED_BY_PRODUCER = new EventLog.Event("AllProducersAllConsumersV1.consumedByProducer",
+            (sb, threadId, size, d) -> sb.append(d).append(" is consumed by Producer ").append(threadId));
+
+    /**
+     * Launches the producers and consumers.
+     *
+     * @param args optional number of elements per turn (default 1),
+     *             {@code fill} to fill and drain the whole capacity per turn, or
+     *             {@code sharded [shards]} to use a {@link ShardedQueue}
+     */
     public static void main(String[] args) {
-        ExecutorService executor = Executors.newCachedThreadPool();
+        if (args.length > 0 && args[0].equals("sharded")) {
+            int shards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            sq = new ShardedQueue<>(shards, MyQueue.CAPACITY);
+        } else if (args.length > 0) {
+            q = new MyQueue(args[0].equals("fill") ? q.capacity.max() : Integer.parseInt(args[0]));
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = newExecutor();
 
         // Launch producers and consumers
-        for (int i = 1; i < 100; i++) {
+        for (int i = 1; i < TASKS; i++) {
             executor.execute(new Producer());
             executor.execute(new Consumer());
         }
@@ -36,23 +94,73 @@ public class AllProducersAllConsumersV1 {
 
         // Wait until all tasks are finished
         while (!executor.isTerminated()) {
+            // The elements dropped or handled by their producers leave as many consumers
+            // waiting for ever: once the producers are done and the queue is empty, stop them
+            if (sq == null && producersDone.get() == TASKS - 1 && q.size() == 0) {
+                executor.shutdownNow();
+            }
             Thread.yield();
         }
 
-        System.out.println("The final size of the queue = " + q.size());
+        EventLog.flush();
+        if (sq != null) {
+            System.out.println("The final size of the sharded queue = " + sq.size());
+        } else {
+            System.out.println("The final size of the queue = " + q.size());
+            System.out.println("The number of turns = " + q.getTurns());
+        }
+        printFootprint(start);
+    }
+
+    /**
+     * Creates the executor running the tasks: one virtual thread per task with
+     * {@code -Dthreads=virtual}, otherwise a cached pool of platform threads.
+     *
+     * @return the new executor
+     */
+    private static ExecutorService newExecutor() {
+        return VIRTUAL_THREADS ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Prints the kind of threads used, the elapsed time, the peak number of
+     * live platform threads and the peak heap usage, to compare the footprint
+     * of the two kinds of threads.
+     *
+     * @param start the start time, from System.nanoTime()
+     */
+    private static void printFootprint(long start) {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%s threads: %d ms, peak %d platform threads, peak heap %d MB%n",
+                VIRTUAL_THREADS ? "Virtual" : "Platform", (System.nanoTime() - start) / 1_000_000,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakHeap >> 20);
     }
 
     /**
      * Producer thread that adds the current timestamp to the queue.
      */
-    static class Producer extends Thread {
+    static class Producer implements Runnable {
         @Override
         public void run() {
             try {
                 Date d = new Date();
-                q.addEl(d);
+                if (sq != null) {
+                    int shard = sq.put(d);
+                    if (EventLog.INFO) {
+                        EventLog.log(ADDED_TO_SHARD, shard, d);
+                    }
+                } else {
+                    q.addEl(d);
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+            } finally {
+                producersDone.incrementAndGet();
             }
         }
     }
@@ -60,11 +168,18 @@ public class AllProducersAllConsumersV1 {
     /**
      * Consumer thread that removes a timestamp from the queue.
      */
-    static class Consumer extends Thread {
+    static class Consumer implements Runnable {
         @Override
         public void run() {
             try {
-                q.removeEl();
+                if (sq != null) {
+                    Date d = sq.take();
+                    if (EventLog.INFO) {
+                        EventLog.log(REMOVED, -1, d);
+                    }
+                } else {
+                    q.removeEl();
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -74,51 +189,170 @@ public class AllProducersAllConsumersV1 {
     /**
      * A shared queue supporting synchronized cooperative producer/consumer logic.
      * Uses explicit locks and multiple condition variables.
+     * <p>
+     * A turn lets one side move up to {@code batchSize} elements before the
+     * other side gets the turn. The turn also ends early when the queue is full
+     * (producers) or empty (consumers), or when no other thread of the same
+     * side is waiting to continue it. Threads are woken one at a time: the
+     * thread ending a turn signals one thread of the other side, and a thread
+     * continuing a turn signals the next one of its own side.
      */
     static class MyQueue extends LinkedList<Date> {
 
-        private final Lock lock = new ReentrantLock();
-        private final Condition notFull = lock.newCondition();
-        private final Condition notEmpty = lock.newCondition();
-        private final Condition producersTurn = lock.newCondition();
-        private final Condition consumersTurn = lock.newCondition();
+        private final Lock lock = Metrics.newLock("AllProducersAllConsumersV1.lock");
+        private final Condition producersTurn = Metrics.newCondition(lock, "AllProducersAllConsumersV1.producersTurn");
+        private final Condition consumersTurn = Metrics.newCondition(lock, "AllProducersAllConsumersV1.consumersTurn");
+
+        // Size of the queue after each addition and removal (with -Dmetrics=true)
+        private final Histogram depth = Metrics.histogram("AllProducersAllConsumersV1.depth");
 
         // Alternates between producers and consumers
         private boolean isProducerTurn = true;
 
         private static final int CAPACITY = 10;
 
+        // Capacity of the queue, fixed or adaptive, and what producers do when it is full
+        private final AdaptiveCapacity capacity;
+        private final OverflowPolicy overflow;
+
+        // Number of elements dropped by the overflow policy
+        private final Metrics.Counter dropped = Metrics.counter("AllProducersAllConsumersV1.dropped");
+
+        // Number of elements a turn may move, and how many the current turn moved
+        private final int batchSize;
+        private int movedThisTurn = 0;
+
+        // Threads waiting for the turn of their side
+        private int waitingProducers = 0;
+        private int waitingConsumers = 0;
+
+        // Number of times the turn changed sides
+        private int turns = 0;
+
         /**
-         * Adds an element to the queue if space is available and it's producers' turn.
-         * Otherwise, the producer thread waits.
+         * Constructs a queue alternating one element per turn.
+         */
+        MyQueue() {
+            this(1);
+        }
+
+        /**
+         * Constructs a queue moving up to {@code batchSize} elements per turn,
+         * with the capacity and overflow policy set by the system properties
+         * ({@code -Dcapacity} and {@code -Doverflow}).
+         *
+         * @param batchSize the number of elements per turn, between 1 and the capacity
+         * @throws IllegalArgumentException if the batch size is out of range
+         */
+        MyQueue(int batchSize) {
+            this(batchSize, AdaptiveCapacity.fromProperty("AllProducersAllConsumersV1", CAPACITY),
+                    OverflowPolicy.fromProperty());
+        }
+
+        /**
+         * Constructs a queue moving up to {@code batchSize} elements per turn.
+         *
+         * @param batchSize the number of elements per turn, between 1 and the
+         *                  largest capacity
+         * @param capacity  the capacity, fixed or adaptive
+         * @param overflow  what a producer does when the queue is full
+         * @throws IllegalArgumentException if the batch size is out of range
+         */
+        MyQueue(int batchSize, AdaptiveCapacity capacity, OverflowPolicy overflow) {
+            if (batchSize < 1 || batchSize > capacity.max()) {
+                throw new IllegalArgumentException("Batch size must be between 1 and " + capacity.max());
+            }
+            this.batchSize = batchSize;
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
+        /**
+         * Adds an element to the queue if it's producers' turn.
+         * Otherwise, the producer thread waits, unless the queue is full and
+         * the overflow policy says to drop an element or to hand the element
+         * back to the producer.
          *
          * @param e Date to be added
          * @throws InterruptedException if interrupted while waiting
          */
         public void addEl(Date e) throws InterruptedException {
+            OverflowPolicy.Outcome outcome = OverflowPolicy.Outcome.ADD;
             lock.lock();
             try {
-                // Wait until it's the producers' turn and there is space
-                while (!isProducerTurn || size() >= CAPACITY) {
-                    if (!isProducerTurn)
-                        producersTurn.await();
-                    else
-                        notFull.await();
+                // Wait until it's the producers' turn (a producers' turn always has space)
+                while (!isProducerTurn && outcome == OverflowPolicy.Outcome.ADD) {
+                    waitingProducers++;
+                    try {
+                        if (size() >= capacity.get()) {
+                            // Full until the consumers' turn ends: the policy decides whether to wait
+                            outcome = overflow.awaitRoom(producersTurn, () -> !isProducerTurn && size() >= capacity.get());
+                        } else {
+                            producersTurn.await();
+                        }
+                    } finally {
+                        waitingProducers--;
+                    }
                 }
 
-                super.addLast(e);
-                System.out.println(e.toString() + " is added by Producer " + Thread.currentThread().threadId());
-
-                // Switch turn to consumers and notify them
-                isProducerTurn = false;
-                consumersTurn.signalAll();
+                switch (outcome) {
+                    case ADD -> addInTurn(e);
+                    case DROP_OLDEST -> {
+                        // Make room without taking the turn from the consumers
+                        dropped(super.removeFirst());
+                        super.addLast(e);
+                        if (EventLog.INFO) {
+                            EventLog.log(ADDED, size(), e);
+                        }
+                    }
+                    case REJECT -> {
+                        // Handled below, out of the lock
+                    }
+                }
             } finally {
                 lock.unlock();
             }
+            if (outcome == OverflowPolicy.Outcome.REJECT) {
+                if (overflow == OverflowPolicy.CALLER_RUNS) {
+                    // Do what a consumer would do
+                    if (EventLog.INFO) {
+                        EventLog.log(CONSUMED_BY_PRODUCER, -1, e);
+                    }
+                } else {
+                    dropped(e);
+                }
+            }
+        }
+
+        /**
+         * Adds an element during the producers' turn, and ends the turn when
+         * the batch is complete, the queue is full or no other producer is
+         * waiting. Called with the lock held.
+         */
+        private void addInTurn(Date e) {
+            super.addLast(e);
+            depth.record(size());
+            capacity.sample(size());
+            movedThisTurn++;
+            if (EventLog.INFO) {
+                EventLog.log(ADDED, size(), e);
+            }
+
+            // A full adaptive queue grows rather than ending the turn
+            if (movedThisTurn >= batchSize || waitingProducers == 0 || capacity.isFull(size())) {
+                // Switch turn to consumers and wake one of them
+                isProducerTurn = false;
+                movedThisTurn = 0;
+                turns++;
+                consumersTurn.signal();
+            } else {
+                // Let the next producer continue the turn
+                producersTurn.signal();
+            }
         }
 
         /**
-         * Removes an element from the queue if it’s not empty and it’s consumers' turn.
+         * Removes an element from the queue if it’s consumers' turn.
          * Otherwise, the consumer thread waits.
          *
          * @throws InterruptedException if interrupted while waiting
@@ -126,20 +360,58 @@ public class AllProducersAllConsumersV1 {
         public void removeEl() throws InterruptedException {
             lock.lock();
             try {
-                // Wait until it's the consumers' turn and the queue is not empty
-                while (isProducerTurn || size() == 0) {
-                    if (isProducerTurn)
+                // Wait until it's the consumers' turn (a consumers' turn always has elements)
+                while (isProducerTurn) {
+                    waitingConsumers++;
+                    try {
                         consumersTurn.await();
-                    else
-                        notEmpty.await();
+                    } finally {
+                        waitingConsumers--;
+                    }
                 }
 
                 Date d = super.removeFirst();
-                System.out.println(d.toString() + " is removed by Consumer " + Thread.currentThread().threadId());
+                depth.record(size());
+                capacity.sample(size());
+                movedThisTurn++;
+                if (EventLog.INFO) {
+                    EventLog.log(REMOVED, size(), d);
+                }
+
+                if (movedThisTurn >= batchSize || size() == 0 || waitingConsumers == 0) {
+                    // Switch turn to producers and wake one of them
+                    isProducerTurn = true;
+                    movedThisTurn = 0;
+                    turns++;
+                    producersTurn.signal();
+                } else {
+                    // Let the next consumer continue the turn
+                    consumersTurn.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
 
-                // Switch turn to producers and notify them
-                isProducerTurn = true;
-                producersTurn.signalAll();
+        /**
+         * Counts and logs an element dropped by the overflow policy.
+         */
+        private void dropped(Date d) {
+            dropped.increment();
+            if (EventLog.INFO) {
+                EventLog.log(DROPPED, -1, d);
+            }
+        }
+
+        /**
+         * Returns the number of times the turn went from one side to the other.
+         *
+         * @return the turn count
+         */
+        public int getTurns() {
+            lock.lock();
+            try {
+                return turns;
             } finally {
                 lock.unlock();
             }
@@ -1,24 +1,42 @@
 package Ex5_AllProducersAllConsumers;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import EventLog.EventLog;
+import Metrics.Histogram;
+import Metrics.Metrics;
+import Overflow.AdaptiveCapacity;
+import Overflow.OverflowPolicy;
 
 /**
  * This class demonstrates a version of the Producer-Consumer problem
  * with additional cooperation between:
  * 
- * 1. All producers (via P2P signaling)
- * 2. All consumers (via C2C signaling)
+ * 1. All producers (via the P2P ticket sequencer)
+ * 2. All consumers (via the C2C ticket sequencer)
  * 
  * Each producer or consumer allows another of its kind to proceed after
- * performing its operation.
- * The queue has a maximum size of 1000 elements.
+ * performing its operation: every step takes a ticket, so the threads of a
+ * group take turns in round-robin order, and a thread that is done simply
+ * leaves the rotation.
+ * The queue has a maximum size of 1000 elements by default, set with
+ * -Dcapacity=n, or -Dcapacity=min..max to adapt it to the load; what producers
+ * do when it is full is set with
+ * -Doverflow=block|timeout|drop-newest|drop-oldest|caller-runs (see
+ * AdaptiveCapacity and OverflowPolicy).
+ *
+ * With -Dthreads=virtual, the producers and consumers run on virtual threads
+ * instead of a cached pool of platform threads.
  */
 public class AllProducersAllConsumersV2 {
 
@@ -26,21 +44,62 @@ public class AllProducersAllConsumersV2 {
   public static MyQueue q = new MyQueue();
 
   // Shared lock and conditions
-  private static final ReentrantLock lock = new ReentrantLock();
+  private static final Lock lock = Metrics.newLock("AllProducersAllConsumersV2.lock");
 
   // Conditions for controlling queue capacity
-  private static final Condition isFull = lock.newCondition(); // Queue full — producers wait
-  private static final Condition isEmpty = lock.newCondition(); // Queue empty — consumers wait
+  private static final Condition isFull = Metrics.newCondition(lock, "AllProducersAllConsumersV2.isFull"); // Queue full — producers wait
+  private static final Condition isEmpty = Metrics.newCondition(lock, "AllProducersAllConsumersV2.isEmpty"); // Queue empty — consumers wait
 
-  // Conditions for intra-group cooperation
-  private static final Condition P2P = lock.newCondition(); // Producer-to-producer signaling
-  private static final Condition C2C = lock.newCondition(); // Consumer-to-consumer signaling
+  // Size of the queue after each addition and removal (with -Dmetrics=true)
+  private static final Histogram depth = Metrics.histogram("AllProducersAllConsumersV2.depth");
 
+  // Capacity of the queue, fixed or adaptive (guarded by lock), and what producers do when it is full
+  private static final int CAPACITY = 1000;
+  private static final AdaptiveCapacity capacity = AdaptiveCapacity.fromProperty("AllProducersAllConsumersV2", CAPACITY);
+  private static final OverflowPolicy overflow = OverflowPolicy.fromProperty();
+
+  // Number of elements dropped by the overflow policy
+  private static final Metrics.Counter dropped = Metrics.counter("AllProducersAllConsumersV2.dropped");
+
+  // Number of producers that are done
+  private static final AtomicInteger producersDone = new AtomicInteger();
+
+  // Ticket sequencers for intra-group cooperation
+  private static final TicketSequencer P2P = new TicketSequencer(1024, "AllProducersAllConsumersV2.P2P"); // Producer-to-producer turns
+  private static final TicketSequencer C2C = new TicketSequencer(1024, "AllProducersAllConsumersV2.C2C"); // Consumer-to-consumer turns
+
+  // Shared sharded queue, used instead of q in sharded mode
+  public static ShardedQueue<Date> sq = null;
+
+  // Whether the tasks run on virtual threads (-Dthreads=virtual) rather than platform threads
+  private static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("threads"));
+
+  // Events logged by the producers and consumers (printed asynchronously by the EventLog writer)
+  private static final EventLog.Event ADDED = new EventLog.Event("AllProducersAllConsumersV2.added",
+      (sb, threadId, size, d) -> sb.append(d).append(" is added by Producer ").append(threadId));
+  private static final EventLog.Event REMOVED = new EventLog.Event("AllProducersAllConsumersV2.removed",
+      (sb, threadId, size, d) -> sb.append(d).append(" is removed by Consumer ").append(threadId));
+  private static final EventLog.Event DROPPED = new EventLog.Event("AllProducersAllConsumersV2.dropped",
+      (sb, threadId, size, d) -> sb.append(d).append(" is dropped"));
+  private static final EventLog.Event CONSUMED_BY_PRODUCER = new EventLog.Event("AllProducersAllConsumersV2.consumedByProducer",
+      (sb, threadId, size, d) -> sb.append(d).append(" is consumed by Producer ").append(threadId));
+
+  /**
+   * Launches the producers and consumers.
+   *
+   * @param args optional number of producers (and of consumers), 9 by default,
+   *             followed by {@code sharded} to use a {@link ShardedQueue}
+   */
   public static void main(String[] args) {
-    ExecutorService executor = Executors.newCachedThreadPool();
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+    if (args.length > 1 && args[1].equals("sharded")) {
+      sq = new ShardedQueue<>(CAPACITY);
+    }
+    long start = System.nanoTime();
+    ExecutorService executor = newExecutor();
 
     // Launch multiple producers and consumers
-    for (int i = 1; i < 10; i++) {
+    for (int i = 0; i < n; i++) {
       executor.execute(new Producer());
       executor.execute(new Consumer());
     }
@@ -49,24 +108,72 @@ public class AllProducersAllConsumersV2 {
 
     // Wait for all threads to complete
     while (!executor.isTerminated()) {
+      // The elements dropped or handled by their producers leave consumers waiting
+      // for ever: once the producers are done and the queue is empty, stop them
+      if (sq == null && producersDone.get() == n && q.size() == 0) {
+        executor.shutdownNow();
+      }
       Thread.yield();
     }
 
-    System.out.println("The size = " + q.size());
+    EventLog.flush();
+    System.out.println("The size = " + (sq != null ? sq.size() : q.size()));
+    printFootprint(start);
+  }
+
+  /**
+   * Creates the executor running the tasks: one virtual thread per task with
+   * {@code -Dthreads=virtual}, otherwise a cached pool of platform threads.
+   *
+   * @return the new executor
+   */
+  private static ExecutorService newExecutor() {
+    return VIRTUAL_THREADS ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+  }
+
+  /**
+   * Prints the kind of threads used, the elapsed time, the peak number of
+   * live platform threads and the peak heap usage, to compare the footprint
+   * of the two kinds of threads.
+   *
+   * @param start the start time, from System.nanoTime()
+   */
+  private static void printFootprint(long start) {
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+    }
+    System.out.printf("%s threads: %d ms, peak %d platform threads, peak heap %d MB%n",
+        VIRTUAL_THREADS ? "Virtual" : "Platform", (System.nanoTime() - start) / 1_000_000,
+        ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakHeap >> 20);
   }
 
   /**
    * Producer thread that adds timestamps to the queue.
    */
-  static class Producer extends Thread {
+  static class Producer implements Runnable {
     @Override
     public void run() {
       Date d = new Date();
       try {
-        q.addEl(d);
+        if (sq != null) {
+          // Each producer adds 9 items to its home shard
+          for (int i = 1; i < 10; i++) {
+            sq.put(d);
+            if (EventLog.INFO) {
+              EventLog.log(ADDED, -1, d);
+            }
+          }
+        } else {
+          q.addEl(d);
+        }
       } catch (InterruptedException ex) {
         Logger.getLogger(AllProducersAllConsumersV2.class.getName()).log(Level.SEVERE, null, ex);
         Thread.currentThread().interrupt();
+      } finally {
+        producersDone.incrementAndGet();
       }
     }
   }
@@ -74,11 +181,21 @@ public class AllProducersAllConsumersV2 {
   /**
    * Consumer thread that removes timestamps from the queue.
    */
-  static class Consumer extends Thread {
+  static class Consumer implements Runnable {
     @Override
     public void run() {
       try {
-        q.removeEl();
+        if (sq != null) {
+          // Each consumer removes 9 items, stealing from other shards if needed
+          for (int i = 1; i < 10; i++) {
+            Date d = sq.take();
+            if (EventLog.INFO) {
+              EventLog.log(REMOVED, -1, d);
+            }
+          }
+        } else {
+          q.removeEl();
+        }
       } catch (InterruptedException ex) {
         Logger.getLogger(AllProducersAllConsumersV2.class.getName()).log(Level.SEVERE, null, ex);
         Thread.currentThread().interrupt();
@@ -94,7 +211,8 @@ public class AllProducersAllConsumersV2 {
 
     /**
      * Adds an element to the queue, signaling other producers after insertion.
-     * Waits if the queue is full.
+     * If the queue is full, the overflow policy decides whether to wait, drop
+     * an element or hand the element back to the producer.
      *
      * @param e the Date object to add
      * @throws InterruptedException if the thread is interrupted
@@ -102,27 +220,46 @@ public class AllProducersAllConsumersV2 {
     public void addEl(Date e) throws InterruptedException {
       // Each producer adds 9 items
       for (int i = 1; i < 10; i++) {
-        lock.lock();
+        // Wait for the next turn among producers
+        P2P.await(P2P.take());
         try {
-          // Wait if the queue is full
-          while (q.size() == 1000) {
-            isFull.await();
-          }
-
-          // Add the element
-          super.addLast(e);
-          System.out.println(e + " is added by Producer " + Thread.currentThread().getId());
+          OverflowPolicy.Outcome outcome;
+          lock.lock();
+          try {
+            // Wait if the queue is full, if the policy says so
+            outcome = overflow.awaitRoom(isFull, () -> capacity.isFull(q.size()));
+            if (outcome != OverflowPolicy.Outcome.REJECT) {
+              if (outcome == OverflowPolicy.Outcome.DROP_OLDEST) {
+                dropped(super.removeFirst());
+              }
 
-          // Notify consumers that the queue is no longer empty
-          isEmpty.signal();
+              // Add the element
+              super.addLast(e);
+              depth.record(size());
+              capacity.sample(size());
+              if (EventLog.INFO) {
+                EventLog.log(ADDED, size(), e);
+              }
 
-          // Let another producer continue
-          P2P.signal();
-
-          // Wait for the next turn among producers
-          P2P.await();
+              // Notify consumers that the queue is no longer empty
+              isEmpty.signal();
+            }
+          } finally {
+            lock.unlock();
+          }
+          if (outcome == OverflowPolicy.Outcome.REJECT) {
+            if (overflow == OverflowPolicy.CALLER_RUNS) {
+              // Do what a consumer would do, out of the lock
+              if (EventLog.INFO) {
+                EventLog.log(CONSUMED_BY_PRODUCER, -1, e);
+              }
+            } else {
+              dropped(e);
+            }
+          }
         } finally {
-          lock.unlock();
+          // Let another producer continue
+          P2P.advance();
         }
       }
     }
@@ -136,29 +273,44 @@ public class AllProducersAllConsumersV2 {
     public void removeEl() throws InterruptedException {
       // Each consumer removes 9 items
       for (int i = 1; i < 10; i++) {
-        lock.lock();
+        // Wait for the next turn among consumers
+        C2C.await(C2C.take());
         try {
-          // Wait if the queue is empty
-          while (q.size() == 0) {
-            isEmpty.await();
-          }
+          lock.lock();
+          try {
+            // Wait if the queue is empty
+            while (q.size() == 0) {
+              isEmpty.await();
+            }
 
-          // Remove the element
-          Date d = super.removeFirst();
-          System.out.println(d + " is removed by Consumer " + Thread.currentThread().getId());
+            // Remove the element
+            Date d = super.removeFirst();
+            depth.record(size());
+            capacity.sample(size());
+            if (EventLog.INFO) {
+              EventLog.log(REMOVED, size(), d);
+            }
 
-          // Notify producers that the queue is no longer full
-          isFull.signal();
-
-          // Let another consumer continue
-          C2C.signal();
-
-          // Wait for the next turn among consumers
-          C2C.await();
+            // Notify producers that the queue is no longer full
+            isFull.signal();
+          } finally {
+            lock.unlock();
+          }
         } finally {
-          lock.unlock();
+          // Let another consumer continue
+          C2C.advance();
         }
       }
     }
+
+    /**
+     * Counts and logs an element dropped by the overflow policy.
+     */
+    private void dropped(Date d) {
+      dropped.increment();
+      if (EventLog.INFO) {
+        EventLog.log(DROPPED, -1, d);
+      }
+    }
   }
 }
@@ -0,0 +1,275 @@
+package Ex5_AllProducersAllConsumers;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue split into several sub-queues (shards), each with its own
+ * lock and its own share of the capacity, so producers and consumers working
+ * on different shards never contend.
+ * <p>
+ * A producer adds to its home shard, chosen from its thread id, or to the next
+ * shard with room when its home shard is full. A consumer first takes from its
+ * own home shard and, when it is empty, steals from the other shards in turn.
+ * Elements of one shard leave in FIFO order, but there is no global FIFO order
+ * across shards.
+ * <p>
+ * Nothing is shared between the shards while one of them has room (for a
+ * producer) or an element (for a consumer). Only when every shard is full, or
+ * every shard is empty, does a thread register as waiting and wait on a shared
+ * lock; the threads on the other side only take that lock when someone is
+ * registered.
+ *
+ * @param <E> the type of the elements
+ */
+class ShardedQueue<E> {
+
+    /**
+     * A sub-queue, its lock and its capacity.
+     */
+    private static final class Shard<E> {
+        final Lock lock = new ReentrantLock();
+        final ArrayDeque<E> elements = new ArrayDeque<>();
+        final int capacity;
+
+        // Number of elements, readable without the lock
+        volatile int count;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    private final Shard<E>[] shards;
+    private final int capacity;
+
+    // Threads waiting because every shard is full or every shard is empty
+    private final Lock waitLock = new ReentrantLock();
+    private final Condition notFull = waitLock.newCondition();
+    private final Condition notEmpty = waitLock.newCondition();
+    private final AtomicInteger waitingPutters = new AtomicInteger();
+    private final AtomicInteger waitingTakers = new AtomicInteger();
+
+    /**
+     * Constructs a queue with one shard per processor.
+     *
+     * @param capacity the maximum number of elements over all the shards
+     */
+    ShardedQueue(int capacity) {
+        this(Runtime.getRuntime().availableProcessors(), capacity);
+    }
+
+    /**
+     * Constructs a queue. The capacity is split evenly between the shards.
+     *
+     * @param shardCount the number of shards
+     * @param capacity   the maximum number of elements over all the shards
+     * @throws IllegalArgumentException if a number is not positive
+     */
+    ShardedQueue(int shardCount, int capacity) {
+        if (shardCount < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid sharded queue: " + shardCount + " shards, capacity "
+                    + capacity);
+        }
+        this.shards = newShards(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard<>(capacity / shardCount + (i < capacity % shardCount ? 1 : 0));
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates an array of shards: Java cannot create an array of a generic
+     * type directly.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <E> Shard<E>[] newShards(int count) {
+        return (Shard<E>[]) new Shard[count];
+    }
+
+    /**
+     * Adds an element to the home shard of the calling thread, or to the next
+     * shard with room, waiting while every shard is full.
+     *
+     * @param e the element to add
+     * @return the index of the shard the element was added to
+     * @throws InterruptedException if interrupted while waiting
+     */
+    int put(E e) throws InterruptedException {
+        int index = offer(e);
+        if (index >= 0) {
+            return index;
+        }
+        waitLock.lock();
+        try {
+            // Registered before looking again, so a consumer freeing a place from now on signals us
+            waitingPutters.incrementAndGet();
+            try {
+                while ((index = offer(e)) < 0) {
+                    notFull.await();
+                }
+            } finally {
+                waitingPutters.decrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+            // Pass on a signal we may have taken
+            notFull.signal();
+            throw ex;
+        } finally {
+            waitLock.unlock();
+        }
+        return index;
+    }
+
+    /**
+     * Removes an element, from the home shard of the calling thread if it has
+     * one, otherwise from the next non-empty shard. Waits while every shard is
+     * empty.
+     *
+     * @return the removed element
+     * @throws InterruptedException if interrupted while waiting
+     */
+    E take() throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        waitLock.lock();
+        try {
+            // Registered before looking again, so a producer adding from now on signals us
+            waitingTakers.incrementAndGet();
+            try {
+                while ((e = poll()) == null) {
+                    notEmpty.await();
+                }
+            } finally {
+                waitingTakers.decrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+            // Pass on a signal we may have taken
+            notEmpty.signal();
+            throw ex;
+        } finally {
+            waitLock.unlock();
+        }
+        return e;
+    }
+
+    /**
+     * Adds an element to the first shard with room, starting at home, without
+     * waiting.
+     *
+     * @return the index of the shard, or -1 if every shard is full
+     */
+    private int offer(E e) {
+        int home = homeShard();
+        for (int i = 0; i < shards.length; i++) {
+            int index = (home + i) % shards.length;
+            Shard<E> shard = shards[index];
+            if (shard.count >= shard.capacity) {
+                continue;
+            }
+            boolean added = false;
+            shard.lock.lock();
+            try {
+                if (shard.count < shard.capacity) {
+                    shard.elements.addLast(e);
+                    shard.count++;
+                    added = true;
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+            if (added) {
+                signal(waitingTakers, notEmpty);
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes an element from the first non-empty shard, starting at home,
+     * without waiting.
+     *
+     * @return the element, or null if every shard is empty
+     */
+    private E poll() {
+        int home = homeShard();
+        for (int i = 0; i < shards.length; i++) {
+            Shard<E> shard = shards[(home + i) % shards.length];
+            if (shard.count == 0) {
+                continue;
+            }
+            E e;
+            shard.lock.lock();
+            try {
+                e = shard.elements.pollFirst();
+                if (e != null) {
+                    shard.count--;
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+            if (e != null) {
+                signal(waitingPutters, notFull);
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wakes up one waiting thread, if any is registered.
+     */
+    private void signal(AtomicInteger waiting, Condition condition) {
+        if (waiting.get() > 0) {
+            waitLock.lock();
+            try {
+                condition.signal();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of elements over all the shards. The shards are not
+     * locked, so the result is only a snapshot while elements are added or
+     * removed.
+     *
+     * @return the number of elements
+     */
+    int size() {
+        int size = 0;
+        for (Shard<E> shard : shards) {
+            size += shard.count;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of elements over all the shards.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the shard count
+     */
+    int shardCount() {
+        return shards.length;
+    }
+
+    private int homeShard() {
+        return (int) (Thread.currentThread().threadId() % shards.length);
+    }
+}
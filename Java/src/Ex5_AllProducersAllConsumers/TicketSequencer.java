@@ -0,0 +1,120 @@
+package Ex5_AllProducersAllConsumers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import Metrics.Histogram;
+import Metrics.Metrics;
+
+/**
+ * Hands out turns in strict ticket order among the threads of one group.
+ * <p>
+ * A thread takes a ticket with {@link #take()}, waits for it to be served with
+ * {@link #await(long)}, does its step and then calls {@link #advance()} to serve
+ * the next ticket. A thread that takes a new ticket for each of its steps
+ * goes to the back of the line every time, which gives round-robin ordering
+ * among all the threads of the group. A thread that has finished simply
+ * stops taking tickets, so nobody is left waiting for a partner.
+ * <p>
+ * A waiting thread spins briefly, then parks on its own slot of an array
+ * indexed by its ticket; {@link #advance()} unparks only the thread holding
+ * the next ticket, so there is no thundering herd. The slots are valid as
+ * long as no more than {@code capacity} tickets are waiting at once; a ticket
+ * further away waits with timed parks until it gets within range.
+ * <p>
+ * With {@code -Dmetrics=true}, the time spent in {@link #await(long)} is
+ * recorded in the histogram {@code <name>.await}.
+ */
+class TicketSequencer {
+
+    /**
+     * Number of checks a waiting thread makes before parking.
+     */
+    private static final int SPINS = 128;
+
+    /**
+     * Delay between two checks of a ticket too far away to own a slot.
+     */
+    private static final long FAR_PARK_NANOS = 50_000;
+
+    private final AtomicLong nextTicket = new AtomicLong();
+    private final AtomicLong nowServing = new AtomicLong();
+    private final AtomicReferenceArray<Thread> slots;
+    private final int mask;
+    private final Histogram awaitTime;
+
+    /**
+     * Constructs a sequencer.
+     *
+     * @param capacity the expected maximum number of threads waiting at once,
+     *                 rounded up to a power of two
+     * @param name     the name of the sequencer in the metrics
+     */
+    TicketSequencer(int capacity, String name) {
+        this.awaitTime = Metrics.histogram(name + ".await");
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Takes the next ticket.
+     *
+     * @return the ticket
+     */
+    long take() {
+        return nextTicket.getAndIncrement();
+    }
+
+    /**
+     * Waits until the ticket is served. The wait is not interruptible, because
+     * a ticket that is never served would block the whole group; the interrupt
+     * status is kept for the caller.
+     *
+     * @param ticket a ticket returned by {@link #take()}
+     */
+    void await(long ticket) {
+        if (Metrics.ENABLED) {
+            long start = System.nanoTime();
+            awaitTurn(ticket);
+            awaitTime.record(System.nanoTime() - start);
+        } else {
+            awaitTurn(ticket);
+        }
+    }
+
+    private void awaitTurn(long ticket) {
+        for (int i = 0; i < SPINS; i++) {
+            if (nowServing.get() == ticket) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+
+        // Too far in the line to own a slot yet
+        while (ticket - nowServing.get() > mask) {
+            LockSupport.parkNanos(this, FAR_PARK_NANOS);
+        }
+
+        int slot = (int) ticket & mask;
+        Thread current = Thread.currentThread();
+        slots.set(slot, current);
+        // Check again after publishing the slot, so advance() cannot miss us
+        while (nowServing.get() != ticket) {
+            LockSupport.park(this);
+        }
+        slots.compareAndSet(slot, current, null);
+    }
+
+    /**
+     * Ends the current turn and wakes up the holder of the next ticket.
+     * Must only be called by the thread whose ticket is being served.
+     */
+    void advance() {
+        long next = nowServing.incrementAndGet();
+        Thread waiter = slots.get((int) next & mask);
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
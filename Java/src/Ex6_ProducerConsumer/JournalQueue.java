@@ -0,0 +1,597 @@
+package Ex6_ProducerConsumer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import EventLog.EventLog;
+
+/**
+ * An unbounded persistent queue of byte messages, kept in memory-mapped
+ * segment files of a directory so the queued messages survive a restart.
+ * <p>
+ * Messages are appended one after the other (a journal). The journal is split
+ * into segment files of a fixed size named after their index; when a message
+ * does not fit at the end of a segment, the rest of the segment is marked as
+ * unused and the message goes to the start of the next one. Each record is
+ * the length of the message plus one, then the message bytes padded to a
+ * multiple of 4. A zero means that no record was written there yet, so
+ * reopening the directory finds the end of the journal by walking the last
+ * segment.
+ * <p>
+ * Messages are read through named {@link Cursor}s. Every cursor sees every
+ * message, and the threads sharing one cursor compete for its messages. Each
+ * cursor keeps its position in a small mapped file of the directory. A segment
+ * is deleted once every cursor has moved past it.
+ * <p>
+ * The writes go to the mapped pages, so they survive a crash of the process
+ * as soon as they are made. To also survive a crash of the operating system,
+ * the pages are forced to disk every {@code syncBatch} messages, outside the
+ * append lock so producers are not stopped by the disk.
+ */
+class JournalQueue implements ProducerConsumer.BoundedBuffer<String>, Closeable {
+
+    /**
+     * Size of the length prefix of a record.
+     */
+    private static final int HEADER = Integer.BYTES;
+
+    /**
+     * Header marking the rest of a segment as unused.
+     */
+    private static final int END_OF_SEGMENT = -1;
+
+    /**
+     * Name of the cursor used by removeElement, always present.
+     */
+    static final String DEFAULT_CURSOR = "default";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_SUFFIX = ".cursor";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int syncBatch;
+
+    // Mapped segments by index, and cursors by name
+    private final ConcurrentSkipListMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final Cursor defaultCursor;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition appended = appendLock.newCondition();
+
+    // Position after the last record: segment index * segmentSize + offset
+    private volatile long writePosition;
+
+    // Position up to which the segments were forced to disk, and appends since
+    private long syncedPosition;
+    private int unsynced;
+
+    /**
+     * Opens the journal of a directory, creating it if needed, and recovers
+     * the end of the journal and the positions of the existing cursors.
+     *
+     * @param directory   the directory of the segment and cursor files
+     * @param segmentSize the size of a segment file, a multiple of 4
+     * @param syncBatch   the number of messages between two forces to disk, or
+     *                    0 to leave the writing back to the operating system
+     * @throws IOException if the files cannot be created or mapped
+     */
+    JournalQueue(File directory, int segmentSize, int syncBatch) throws IOException {
+        if (segmentSize % HEADER != 0 || segmentSize < 2 * HEADER) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncBatch = syncBatch;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File[] files = directory.listFiles();
+        List<File> cursorFiles = new ArrayList<>();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                long index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(index, map(file, segmentSize));
+            } else if (name.endsWith(CURSOR_SUFFIX)) {
+                cursorFiles.add(file);
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, map(segmentFile(0), segmentSize));
+        }
+
+        // Walk the last segment up to the first record never written
+        long last = segments.lastKey();
+        MappedByteBuffer segment = segments.get(last);
+        int offset = 0;
+        while (offset < segmentSize) {
+            int header = segment.getInt(offset);
+            if (header == 0) {
+                break;
+            }
+            offset = header == END_OF_SEGMENT ? segmentSize : offset + recordSize(header - 1);
+        }
+        writePosition = last * segmentSize + offset;
+        syncedPosition = writePosition;
+
+        for (File file : cursorFiles) {
+            String name = file.getName();
+            cursor(name.substring(0, name.length() - CURSOR_SUFFIX.length()));
+        }
+        defaultCursor = cursor(DEFAULT_CURSOR);
+    }
+
+    /**
+     * Returns the cursor of the given name, creating it at the oldest message
+     * still in the journal if it does not exist.
+     *
+     * @param name the name of the cursor, usable as a file name
+     * @return the cursor
+     * @throws IOException if the cursor file cannot be created or mapped
+     */
+    Cursor cursor(String name) throws IOException {
+        Cursor cursor = cursors.get(name);
+        if (cursor != null) {
+            return cursor;
+        }
+        appendLock.lock();
+        try {
+            cursor = cursors.get(name);
+            if (cursor == null) {
+                cursor = new Cursor(name);
+                cursors.put(name, cursor);
+            }
+            return cursor;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer as one message. The buffer's
+     * position is moved to its limit. Never waits: the journal is only
+     * bounded by the disk.
+     *
+     * @param src the message bytes
+     * @throws IllegalArgumentException if the message does not fit in a segment
+     * @throws IOException              if a new segment cannot be created
+     */
+    void write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        int recordSize = recordSize(length);
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Message of " + length + " bytes larger than a segment");
+        }
+
+        long syncFrom = -1;
+        long syncTo = -1;
+        appendLock.lock();
+        try {
+            long position = writePosition;
+            long index = position / segmentSize;
+            int offset = (int) (position % segmentSize);
+            MappedByteBuffer segment = segments.get(index);
+            if (offset + recordSize > segmentSize) {
+                // Roll over to the next segment
+                segment.putInt(offset, END_OF_SEGMENT);
+                index++;
+                offset = 0;
+                segment = null;
+            }
+            if (segment == null) {
+                segment = map(segmentFile(index), segmentSize);
+                segments.put(index, segment);
+            }
+
+            // The bytes first, then the header that makes the record valid. Plain
+            // stores to the mapping may be reordered: the fence keeps the body
+            // stores before the header store, so recovery never accepts a header
+            // in front of an unwritten body
+            segment.put(offset + HEADER, src, src.position(), length);
+            src.position(src.position() + length);
+            VarHandle.releaseFence();
+            segment.putInt(offset, length + 1);
+            writePosition = index * segmentSize + offset + recordSize;
+
+            for (Cursor cursor : cursors.values()) {
+                cursor.backlog.incrementAndGet();
+            }
+            appended.signalAll();
+
+            if (syncBatch > 0 && ++unsynced >= syncBatch) {
+                syncFrom = syncedPosition;
+                syncTo = writePosition;
+                syncedPosition = syncTo;
+                unsynced = 0;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        if (syncFrom >= 0) {
+            force(syncFrom, syncTo);
+        }
+    }
+
+    /**
+     * Appends a string as a UTF-8 message.
+     *
+     * @param s the string to add
+     */
+    @Override
+    public void addElement(String s) {
+        try {
+            write(ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot append to " + directory, ex);
+        }
+        if (ProducerConsumer.verbose && EventLog.INFO) {
+            EventLog.log(ProducerConsumer.ADDED, -1, s);
+        }
+    }
+
+    /**
+     * Removes the next message of the default cursor as a UTF-8 string,
+     * waiting while there is none.
+     *
+     * @return the removed string
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public String removeElement() throws InterruptedException {
+        String s = defaultCursor.readString();
+        if (ProducerConsumer.verbose && EventLog.INFO) {
+            EventLog.log(ProducerConsumer.REMOVED, -1, s);
+        }
+        return s;
+    }
+
+    /**
+     * Removes up to max messages of the default cursor as UTF-8 strings under
+     * one acquisition of its lock, waiting at most the given time while there
+     * is none.
+     *
+     * @param c       the collection receiving the strings
+     * @param max     the largest number of messages to remove
+     * @param timeout how long to wait while there is no message
+     * @param unit    the unit of the timeout
+     * @return the number of messages removed, 0 if the time elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public int drainTo(Collection<? super String> c, int max, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        int n = defaultCursor.readStrings(c, max, unit.toNanos(timeout));
+        if (ProducerConsumer.verbose && EventLog.INFO) {
+            for (int i = 0; i < n; i++) {
+                EventLog.log(ProducerConsumer.REMOVED, -1, null);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of messages not yet read through the default cursor.
+     *
+     * @return the message count
+     */
+    @Override
+    public int size() {
+        return (int) defaultCursor.backlog.get();
+    }
+
+    /**
+     * Returns the number of segment files.
+     *
+     * @return the segment count
+     */
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces all the segments and cursors to disk.
+     */
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            for (MappedByteBuffer segment : segments.values()) {
+                segment.force();
+            }
+            syncedPosition = writePosition;
+            unsynced = 0;
+        } finally {
+            appendLock.unlock();
+        }
+        for (Cursor cursor : cursors.values()) {
+            cursor.file.force();
+        }
+    }
+
+    /**
+     * A named read position in the journal, shared by the threads consuming
+     * through it.
+     */
+    class Cursor {
+
+        private final String name;
+        private final MappedByteBuffer file;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Messages between the position and the end of the journal
+        private final AtomicLong backlog = new AtomicLong();
+
+        // Read by the other cursors when deleting segments
+        private volatile long position;
+        private int unsynced;
+
+        /**
+         * Opens the cursor file of the given name, or creates it at the oldest
+         * message. Called with the append lock held.
+         */
+        private Cursor(String name) throws IOException {
+            this.name = name;
+            this.file = map(new File(directory, name + CURSOR_SUFFIX), Long.BYTES);
+            long oldest = segments.firstKey() * segmentSize;
+            position = Math.max(file.getLong(0), oldest);
+            backlog.set(countRecords(position, writePosition));
+        }
+
+        /**
+         * Reads the next message into a buffer, at the buffer's position,
+         * waiting while there is none. The buffer's position is moved past the
+         * copied bytes.
+         *
+         * @param dst the buffer receiving the message
+         * @return the length of the message
+         * @throws BufferOverflowException if the message does not fit in the
+         *                                 buffer; the message is not consumed
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        int read(ByteBuffer dst) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                MappedByteBuffer segment = awaitRecord();
+                int offset = (int) (position % segmentSize);
+                int length = segment.getInt(offset) - 1;
+                if (length > dst.remaining()) {
+                    throw new BufferOverflowException();
+                }
+                dst.put(dst.position(), segment, offset + HEADER, length);
+                dst.position(dst.position() + length);
+                advance(length);
+                return length;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Reads the next message as a UTF-8 string, waiting while there is none.
+         *
+         * @return the message
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        String readString() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                MappedByteBuffer segment = awaitRecord();
+                int offset = (int) (position % segmentSize);
+                byte[] bytes = new byte[segment.getInt(offset) - 1];
+                segment.get(offset + HEADER, bytes);
+                advance(bytes.length);
+                return new String(bytes, StandardCharsets.UTF_8);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Reads up to max messages as UTF-8 strings, waiting at most the given
+         * time while there is none.
+         *
+         * @param c     the collection receiving the messages
+         * @param max   the largest number of messages to read
+         * @param nanos how long to wait while there is no message
+         * @return the number of messages read, 0 if the time elapsed
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        int readStrings(Collection<? super String> c, int max, long nanos) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                int n = 0;
+                MappedByteBuffer segment;
+                // Only wait for the first message, then take what is already there
+                while (n < max && (segment = awaitRecord(n == 0 ? nanos : 0)) != null) {
+                    int offset = (int) (position % segmentSize);
+                    byte[] bytes = new byte[segment.getInt(offset) - 1];
+                    segment.get(offset + HEADER, bytes);
+                    advance(bytes.length);
+                    c.add(new String(bytes, StandardCharsets.UTF_8));
+                    n++;
+                }
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the number of messages not yet read through this cursor.
+         *
+         * @return the message count
+         */
+        long backlog() {
+            return backlog.get();
+        }
+
+        /**
+         * Waits for a record at the position, skipping the unused end of a
+         * segment, and returns the segment holding it. Called with the cursor
+         * lock held.
+         */
+        private MappedByteBuffer awaitRecord() throws InterruptedException {
+            return awaitRecord(Long.MAX_VALUE);
+        }
+
+        /**
+         * Waits at most the given time for a record at the position, and
+         * returns the segment holding it, or null if the time elapsed. Called
+         * with the cursor lock held.
+         */
+        private MappedByteBuffer awaitRecord(long nanos) throws InterruptedException {
+            while (true) {
+                if (position == writePosition) {
+                    appendLock.lockInterruptibly();
+                    try {
+                        while (position == writePosition) {
+                            if (nanos <= 0) {
+                                return null;
+                            }
+                            nanos = appended.awaitNanos(nanos);
+                        }
+                    } finally {
+                        appendLock.unlock();
+                    }
+                }
+                long index = position / segmentSize;
+                int offset = (int) (position % segmentSize);
+                MappedByteBuffer segment = segments.get(index);
+                if (segment.getInt(offset) != END_OF_SEGMENT) {
+                    return segment;
+                }
+                moveTo((index + 1) * segmentSize);
+            }
+        }
+
+        /**
+         * Moves past the record of the given length at the position and saves
+         * the new position, forcing it to disk every syncBatch messages.
+         */
+        private void advance(int length) {
+            long next = position + recordSize(length);
+            backlog.decrementAndGet();
+            if (next % segmentSize == 0) {
+                moveTo(next);
+            } else {
+                position = next;
+                file.putLong(0, position);
+            }
+            if (syncBatch > 0 && ++unsynced >= syncBatch) {
+                file.force();
+                unsynced = 0;
+            }
+        }
+
+        /**
+         * Moves to the start of another segment and deletes the segments all
+         * the cursors have left.
+         */
+        private void moveTo(long next) {
+            position = next;
+            file.putLong(0, position);
+            deleteConsumedSegments();
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + position;
+        }
+    }
+
+    /**
+     * Deletes the segments before the one of the slowest cursor, never
+     * deleting the segment being written. Takes the append lock, so no cursor
+     * is created meanwhile.
+     */
+    private void deleteConsumedSegments() {
+        appendLock.lock();
+        try {
+            long min = writePosition / segmentSize;
+            for (Cursor cursor : cursors.values()) {
+                min = Math.min(min, cursor.position / segmentSize);
+            }
+            while (segments.firstKey() < min) {
+                // The mapping itself is released when the buffer is collected
+                segmentFile(segments.pollFirstEntry().getKey()).delete();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Counts the records between two positions.
+     */
+    private long countRecords(long from, long to) {
+        long count = 0;
+        long position = from;
+        while (position < to) {
+            int offset = (int) (position % segmentSize);
+            int header = segments.get(position / segmentSize).getInt(offset);
+            if (header == END_OF_SEGMENT) {
+                position = (position / segmentSize + 1) * segmentSize;
+            } else {
+                position += recordSize(header - 1);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Forces the pages of the segments between two positions to disk.
+     */
+    private void force(long from, long to) {
+        for (long index = from / segmentSize; index <= (to - 1) / segmentSize; index++) {
+            MappedByteBuffer segment = segments.get(index);
+            if (segment == null) {
+                continue;
+            }
+            int start = index == from / segmentSize ? (int) (from % segmentSize) : 0;
+            int end = index == to / segmentSize ? (int) (to % segmentSize) : segmentSize;
+            segment.force(start, end - start);
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, String.format("%020d%s", index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Returns the number of bytes a record of a message takes in a segment.
+     */
+    private static int recordSize(int length) {
+        return HEADER + ((length + HEADER - 1) & -HEADER);
+    }
+
+    /**
+     * Maps a file of the given size, creating it (filled with zeros) if needed.
+     */
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package Ex6_ProducerConsumer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import EventLog.EventLog;
+
+/**
+ * A bounded queue of byte messages stored outside the Java heap, in a ring of
+ * bytes held by a direct ByteBuffer, used as an alternative to
+ * {@link ProducerConsumer.MyQueue} when many messages are queued.
+ * <p>
+ * Each message is a record made of its length (an int) followed by its bytes,
+ * padded to a multiple of 4 so a length never wraps around the end of the
+ * ring; the bytes of a message may wrap around. The capacity is a number of
+ * bytes, so the number of messages the queue holds depends on their size.
+ * <p>
+ * However many messages are queued, the heap only holds this object and the
+ * small ByteBuffer header: the garbage collector neither copies nor scans the
+ * queued data. {@link #write(ByteBuffer)} and {@link #read(ByteBuffer)} copy
+ * straight between the caller's buffer and the ring without any intermediate
+ * array. This is not zero-copy: each message is still copied once into the
+ * ring and once out of it. What is saved is the extra array per message, and
+ * the garbage it makes. Producers and consumers share one lock, held only for
+ * that copy.
+ * <p>
+ * A removal wakes up one waiting producer. Messages have different sizes, so
+ * a producer that has written its message wakes up the next one while there is
+ * room left for a message (cascading signals, as in {@link TwoLockQueue}),
+ * instead of every removal waking all the producers.
+ */
+class OffHeapQueue implements ProducerConsumer.BoundedBuffer<String> {
+
+    /**
+     * Size of the length prefix of a record.
+     */
+    private static final int HEADER = Integer.BYTES;
+
+    private final ByteBuffer ring;
+    private final int mask;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Byte positions of the first record and of the end of the last record;
+    // they only grow, and the ring index is position & mask
+    private long head;
+    private long tail;
+    private int count;
+
+    /**
+     * Constructs an empty queue.
+     *
+     * @param capacity the number of bytes of the ring, rounded up to a power of
+     *                 two; a message takes 4 bytes plus its length rounded up to
+     *                 a multiple of 4
+     */
+    OffHeapQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2 * HEADER, capacity) - 1) << 1;
+        this.ring = ByteBuffer.allocateDirect(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds the remaining bytes of a buffer as one message, waiting while there
+     * is not enough room. The buffer's position is moved to its limit.
+     *
+     * @param src the message bytes
+     * @throws IllegalArgumentException if the message can never fit in the ring
+     * @throws InterruptedException     if the thread is interrupted while waiting
+     */
+    void write(ByteBuffer src) throws InterruptedException {
+        int length = src.remaining();
+        int recordSize = recordSize(length);
+        if (recordSize > ring.capacity()) {
+            throw new IllegalArgumentException("Message of " + length + " bytes larger than the queue");
+        }
+        lock.lockInterruptibly();
+        try {
+            while (tail + recordSize - head > ring.capacity()) {
+                notFull.await();
+            }
+            int index = (int) tail & mask;
+            ring.putInt(index, length);
+            copyIn(src, (index + HEADER) & mask, length);
+            tail += recordSize;
+            count++;
+            notEmpty.signal();
+            // Room left for another message: let the next producer check if its own fits
+            if (tail + recordSize(0) - head <= ring.capacity()) {
+                notFull.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first message and copies its bytes into a buffer, at the
+     * buffer's position, waiting while the queue is empty. The buffer's
+     * position is moved past the copied bytes.
+     *
+     * @param dst the buffer receiving the message
+     * @return the length of the message
+     * @throws BufferOverflowException if the message does not fit in the buffer;
+     *                                 the message is left in the queue
+     * @throws InterruptedException    if the thread is interrupted while waiting
+     */
+    int read(ByteBuffer dst) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            int index = (int) head & mask;
+            int length = ring.getInt(index);
+            if (length > dst.remaining()) {
+                throw new BufferOverflowException();
+            }
+            copyOut((index + HEADER) & mask, dst, length);
+            head += recordSize(length);
+            count--;
+            // Wake up one producer, which wakes up the next one if there is room left
+            notFull.signal();
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a string as a UTF-8 message, waiting while there is not enough room.
+     *
+     * @param s the string to add
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public void addElement(String s) throws InterruptedException {
+        write(ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)));
+        if (ProducerConsumer.verbose && EventLog.INFO) {
+            EventLog.log(ProducerConsumer.ADDED, -1, s);
+        }
+    }
+
+    /**
+     * Removes the first message as a UTF-8 string, waiting while the queue is
+     * empty.
+     *
+     * @return the removed string
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public String removeElement() throws InterruptedException {
+        byte[] bytes;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            int index = (int) head & mask;
+            int length = ring.getInt(index);
+            bytes = new byte[length];
+            copyOut((index + HEADER) & mask, ByteBuffer.wrap(bytes), length);
+            head += recordSize(length);
+            count--;
+            notFull.signal();
+        } finally {
+            lock.unlock();
+        }
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        if (ProducerConsumer.verbose && EventLog.INFO) {
+            EventLog.log(ProducerConsumer.REMOVED, -1, s);
+        }
+        return s;
+    }
+
+    /**
+     * Removes up to max messages as UTF-8 strings under one acquisition of
+     * the lock, waiting at most the given time while the queue is empty. The
+     * strings are decoded once the lock is released.
+     *
+     * @param c       the collection receiving the strings
+     * @param max     the largest number of messages to remove
+     * @param timeout how long to wait while the queue is empty
+     * @param unit    the unit of the timeout
+     * @return the number of messages removed, 0 if the time elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public int drainTo(Collection<? super String> c, int max, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        byte[][] messages;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            messages = new byte[Math.min(max, count)][];
+            for (int i = 0; i < messages.length; i++) {
+                int index = (int) head & mask;
+                int length = ring.getInt(index);
+                messages[i] = new byte[length];
+                copyOut((index + HEADER) & mask, ByteBuffer.wrap(messages[i]), length);
+                head += recordSize(length);
+                count--;
+            }
+            notFull.signal();
+            // Messages left for the other consumers
+            if (count > 0) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (byte[] bytes : messages) {
+            String s = new String(bytes, StandardCharsets.UTF_8);
+            c.add(s);
+            if (ProducerConsumer.verbose && EventLog.INFO) {
+                EventLog.log(ProducerConsumer.REMOVED, -1, s);
+            }
+        }
+        return messages.length;
+    }
+
+    /**
+     * Returns the number of messages.
+     *
+     * @return the message count
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the ring used by the queued records.
+     *
+     * @return the used bytes
+     */
+    int usedBytes() {
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the ring.
+     *
+     * @return the capacity in bytes
+     */
+    int capacity() {
+        return ring.capacity();
+    }
+
+    /**
+     * Returns the number of bytes a record of a message takes in the ring.
+     */
+    private static int recordSize(int length) {
+        return HEADER + ((length + HEADER - 1) & -HEADER);
+    }
+
+    /**
+     * Copies bytes from the source buffer into the ring, in two parts if they
+     * wrap around the end of the ring.
+     */
+    private void copyIn(ByteBuffer src, int index, int length) {
+        int first = Math.min(length, ring.capacity() - index);
+        ring.put(index, src, src.position(), first);
+        ring.put(0, src, src.position() + first, length - first);
+        src.position(src.position() + length);
+    }
+
+    /**
+     * Copies bytes from the ring into the destination buffer, in two parts if
+     * they wrap around the end of the ring.
+     */
+    private void copyOut(int index, ByteBuffer dst, int length) {
+        int first = Math.min(length, ring.capacity() - index);
+        dst.put(dst.position(), ring, index, first);
+        dst.put(dst.position() + first, ring, 0, length - first);
+        dst.position(dst.position() + length);
+    }
+}
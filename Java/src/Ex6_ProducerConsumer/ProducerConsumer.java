@@ -1,44 +1,149 @@
 package Ex6_ProducerConsumer;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import EventLog.EventLog;
+import Metrics.Histogram;
+import Metrics.Metrics;
+import Overflow.AdaptiveCapacity;
+import Overflow.OverflowPolicy;
 
 /**
  * ProducerConsumer demonstrates a classic producer-consumer problem implementation
  * using a shared queue protected by explicit locking with conditions for synchronization.
  * Producers add elements to the queue while consumers remove elements.
- * The queue has a fixed capacity of 10 elements.
+ * The queue has a capacity of 10 elements by default.
+ * <p>
+ * The queue implementation is chosen by the first command-line argument:
+ * <ul>
+ * <li>{@code lock} (default): {@link MyQueue}, a LinkedList guarded by one lock</li>
+ * <li>{@code twolock}: {@link TwoLockQueue}, a linked queue with separate locks for
+ * producers and consumers</li>
+ * <li>{@code ring [spin|yield|park]}: {@link RingBufferQueue}, a preallocated ring
+ * buffer (capacity rounded up to 16)</li>
+ * <li>{@code offheap}: {@link OffHeapQueue}, UTF-8 messages in a ring of bytes outside
+ * the heap (room for 16 one-character messages)</li>
+ * <li>{@code journal [syncBatch]}: {@link JournalQueue}, an unbounded queue persisted
+ * in memory-mapped segment files of the {@code .journal} directory, forced to disk
+ * every syncBatch messages (64 by default, 0 for never); the messages left by a
+ * previous run are consumed first</li>
+ * <li>{@code spsc [spin|yield|park]}: a throughput test of the ring buffer between
+ * one producer and one consumer</li>
+ * <li>{@code bench lock|twolock|ring|offheap|journal [threads]}: a throughput test of one queue
+ * between several producers and as many consumers, without printing</li>
+ * <li>{@code flow [batch]}: a reactive pipeline read → transform → sink over
+ * {@link MyQueue}, without printing each element: a {@link QueuePublisher} takes
+ * the elements of the producers in batches of up to batch elements (64 by default)
+ * on one executor, and a {@link QueueProcessor} transforms them on another one for a
+ * sink subscriber that requests them batch by batch</li>
+ * </ul>
+ * <p>
+ * The capacity of {@link MyQueue} is set with {@code -Dcapacity=n}, or
+ * {@code -Dcapacity=min..max} to adapt it to the load (see
+ * {@link AdaptiveCapacity}), and what its producers do when it is full with
+ * {@code -Doverflow=block|timeout|drop-newest|drop-oldest|caller-runs} (see
+ * {@link OverflowPolicy}).
+ * <p>
+ * With {@code -Dthreads=virtual}, the producers and consumers run on virtual
+ * threads instead of a cached pool of platform threads, and {@code -Dtasks=n}
+ * sets the number of producer/consumer pairs (1000 by default).
  */
 public class ProducerConsumer {
 
     // Lock for synchronizing access to the shared queue
-    private static final Lock lock = new ReentrantLock();
+    private static final Lock lock = Metrics.newLock("ProducerConsumer.lock");
 
     // Condition to signal when the queue is not empty (consumers can proceed)
-    private static final Condition isEmpty = lock.newCondition();
+    private static final Condition isEmpty = Metrics.newCondition(lock, "ProducerConsumer.isEmpty");
 
     // Condition to signal when the queue is not full (producers can proceed)
-    private static final Condition isFull = lock.newCondition();
+    private static final Condition isFull = Metrics.newCondition(lock, "ProducerConsumer.isFull");
+
+    // Size of MyQueue after each addition and removal (with -Dmetrics=true)
+    private static final Histogram depth = Metrics.histogram("ProducerConsumer.depth");
+
+    // Number of elements dropped by the overflow policy of MyQueue
+    private static final Metrics.Counter dropped = Metrics.counter("ProducerConsumer.dropped");
 
     // Shared queue instance for producers and consumers
-    public static MyQueue q = new MyQueue();
+    public static BoundedBuffer<String> q = new MyQueue();
+
+    // Whether the queues print each added and removed element
+    static boolean verbose = true;
+
+    // Events logged by the queues (printed asynchronously by the EventLog writer)
+    static final EventLog.Event ADDED = new EventLog.Event("ProducerConsumer.added",
+            (sb, threadId, size, e) -> sb.append(e).append(" is added"));
+    static final EventLog.Event REMOVED = new EventLog.Event("ProducerConsumer.removed",
+            (sb, threadId, size, e) -> sb.append("An element was removed"));
+    static final EventLog.Event DROPPED = new EventLog.Event("ProducerConsumer.dropped",
+            (sb, threadId, size, e) -> sb.append(e).append(" is dropped"));
+    static final EventLog.Event CONSUMED_BY_PRODUCER = new EventLog.Event("ProducerConsumer.consumedByProducer",
+            (sb, threadId, size, e) -> sb.append(e).append(" is consumed by its producer"));
+
+    // Whether the tasks run on virtual threads (-Dthreads=virtual) rather than platform threads
+    private static final boolean VIRTUAL_THREADS = "virtual".equals(System.getProperty("threads"));
+
+    // Number of producer/consumer pairs submitted by main (-Dtasks=n)
+    private static final int TASKS = Integer.getInteger("tasks", 1000);
+
+    // Number of producers that are done
+    private static final AtomicInteger producersDone = new AtomicInteger();
 
     /**
      * Main method initializes and runs producer and consumer tasks using a cached thread pool.
-     * It submits 1000 pairs of producer and consumer tasks.
+     * It submits TASKS - 1 (999 by default) pairs of producer and consumer tasks.
      * Waits for all tasks to finish before printing final queue size.
      *
-     * @param args unused
+     * @param args optional queue implementation and its options
      */
     public static void main(String[] args) {
-        ExecutorService executor = Executors.newCachedThreadPool();
+        String mode = args.length > 0 ? args[0] : "lock";
+        if (mode.equals("spsc")) {
+            benchmarkSpsc(waitStrategy(args.length > 1 ? args[1] : "yield"));
+            return;
+        }
+        if (mode.equals("bench")) {
+            String kind = args.length > 1 ? args[1] : "lock";
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+            benchmark(kind, threads);
+            return;
+        }
+        if (mode.equals("flow")) {
+            runPipeline(args.length > 1 ? Integer.parseInt(args[1]) : 64);
+            return;
+        }
+        try {
+            q = newQueue(mode, args.length > 1 ? args[1] : null);
+        } catch (IOException ex) {
+            Logger.getLogger(ProducerConsumer.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        if (q.size() > 0) {
+            System.out.println("Recovered " + q.size() + " elements from the previous run");
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = newExecutor();
 
         int c = 1;
-        while (c < 1000) {
+        while (c < TASKS) {
             executor.execute(new Producer());
             executor.execute(new Consumer());
             c++;
@@ -48,19 +153,313 @@ public class ProducerConsumer {
 
         // Wait until all tasks have completed execution
         while (!executor.isTerminated()) {
+            // The elements dropped or handled by their producers leave as many consumers
+            // waiting for ever: once the producers are done and the queue is empty, stop them
+            if (producersDone.get() == TASKS - 1 && q.size() == 0) {
+                executor.shutdownNow();
+            }
             Thread.yield();
+            EventLog.flush();
             System.out.println("Current queue size: " + q.size());
         }
 
+        EventLog.flush();
         System.out.println("---- End of MAIN ----");
         System.out.println("Final queue size: " + q.size());
+        printFootprint(start);
+        if (q instanceof JournalQueue journal) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Creates the executor running the tasks: one virtual thread per task with
+     * {@code -Dthreads=virtual}, otherwise a cached pool of platform threads.
+     *
+     * @return the new executor
+     */
+    private static ExecutorService newExecutor() {
+        return VIRTUAL_THREADS ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Prints the kind of threads used, the elapsed time, the peak number of
+     * live platform threads and the peak heap usage, to compare the footprint
+     * of the two kinds of threads.
+     *
+     * @param start the start time, from System.nanoTime()
+     */
+    private static void printFootprint(long start) {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%s threads: %d ms, peak %d platform threads, peak heap %d MB%n",
+                VIRTUAL_THREADS ? "Virtual" : "Platform", (System.nanoTime() - start) / 1_000_000,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakHeap >> 20);
+    }
+
+    /**
+     * Number of elements passed from the producer to the consumer by the SPSC test.
+     */
+    private static final int SPSC_ELEMENTS = 20_000_000;
+
+    /**
+     * Number of elements passed by each producer of the throughput test.
+     */
+    private static final int BENCH_ELEMENTS = 1_000_000;
+
+    /**
+     * Directory of the segment files of the journal queue.
+     */
+    private static final File JOURNAL_DIRECTORY = new File(".journal");
+
+    /**
+     * Size of a segment file of the journal queue.
+     */
+    private static final int JOURNAL_SEGMENT_SIZE = 16 << 20;
+
+    /**
+     * Creates a queue of the given kind, with a capacity of about 10 elements
+     * (the journal queue is unbounded).
+     *
+     * @param kind   {@code lock}, {@code twolock}, {@code ring}, {@code offheap}
+     *               or {@code journal}
+     * @param option the wait strategy of a ring buffer, or the sync batch of a
+     *               journal; null for the default
+     * @return the new queue
+     * @throws IllegalArgumentException if the kind is unknown
+     * @throws IOException              if the journal cannot be opened
+     */
+    private static BoundedBuffer<String> newQueue(String kind, String option) throws IOException {
+        return switch (kind) {
+            case "lock" -> new MyQueue();
+            // Only logs its elements when ProducerConsumer prints them
+            case "twolock" -> verbose ? new TwoLockQueue<>(MyQueue.CAPACITY, ADDED, REMOVED)
+                    : new TwoLockQueue<>(MyQueue.CAPACITY);
+            case "ring" -> new RingBufferQueue<>(MyQueue.CAPACITY, waitStrategy(option == null ? "yield" : option));
+            // A one-character message takes 8 bytes: 16 of them, like the ring buffer
+            case "offheap" -> new OffHeapQueue(128);
+            case "journal" -> new JournalQueue(JOURNAL_DIRECTORY, JOURNAL_SEGMENT_SIZE,
+                    option == null ? 64 : Integer.parseInt(option));
+            default -> throw new IllegalArgumentException("Unknown queue kind: " + kind);
+        };
+    }
+
+    /**
+     * Runs the given number of producers and consumers, each passing
+     * BENCH_ELEMENTS elements through one queue, and prints the handoff rate.
+     *
+     * @param kind    the kind of queue, as accepted by newQueue
+     * @param threads the number of producers, and of consumers
+     */
+    private static void benchmark(String kind, int threads) {
+        verbose = false;
+        BoundedBuffer<String> queue;
+        try {
+            queue = newQueue(kind, null);
+        } catch (IOException ex) {
+            Logger.getLogger(ProducerConsumer.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        Thread[] workers = new Thread[2 * threads];
+        for (int i = 0; i < threads; i++) {
+            workers[2 * i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < BENCH_ELEMENTS; j++) {
+                        queue.addElement("A");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers[2 * i + 1] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < BENCH_ELEMENTS; j++) {
+                        queue.removeElement();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%s, %d producers and %d consumers: %d ms, %.1f million handoffs/s%n", kind,
+                threads, threads, elapsed / 1_000_000, (double) threads * BENCH_ELEMENTS / elapsed * 1000);
+        if (queue instanceof JournalQueue journal) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Runs the producers into MyQueue, and a pipeline of reactive stages, each
+     * on its own executor, in place of the consumers: the read stage publishes
+     * the elements of the queue, the transform stage lowers their case and the
+     * sink counts them. Prints the number of elements and the elapsed time.
+     *
+     * @param batch the largest number of elements removed from a queue at once,
+     *              and requested at once by the sink
+     */
+    private static void runPipeline(int batch) {
+        verbose = false;
+        long start = System.nanoTime();
+        ExecutorService producers = newExecutor();
+        ExecutorService readStage = newExecutor();
+        ExecutorService transformStage = newExecutor();
+
+        QueuePublisher<String> read = new QueuePublisher<>(q, readStage, batch);
+        QueueProcessor<String, String> transform = new QueueProcessor<>(s -> s.toLowerCase(Locale.ROOT),
+                Math.max(2, 2 * batch), transformStage, batch);
+        Sink sink = new Sink(batch);
+        read.subscribe(transform);
+        transform.subscribe(sink);
+
+        for (int c = 1; c < TASKS; c++) {
+            producers.execute(new Producer());
+        }
+        producers.shutdown();
+        try {
+            producers.awaitTermination(1, TimeUnit.HOURS);
+            // No element will be added anymore: the stages complete once they are drained
+            read.close();
+            sink.done.await();
+        } catch (InterruptedException ex) {
+            Logger.getLogger(ProducerConsumer.class.getName()).log(Level.SEVERE, null, ex);
+            Thread.currentThread().interrupt();
+        }
+        readStage.shutdown();
+        transformStage.shutdown();
+
+        EventLog.flush();
+        System.out.printf("Pipeline with batches of %d: %d elements in %d ms, final queue size %d%n", batch,
+                sink.count, (System.nanoTime() - start) / 1_000_000, q.size());
+    }
+
+    /**
+     * The last stage of the pipeline: counts the elements, requesting them
+     * batch by batch, half a batch ahead so the upstream stages keep busy.
+     */
+    private static final class Sink implements Flow.Subscriber<String> {
+
+        private final int batch;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Flow.Subscription subscription;
+
+        // Only used by the delivering thread, one at a time, and read after done
+        private long count;
+        private int received;
+
+        Sink(int batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(batch);
+        }
+
+        @Override
+        public void onNext(String item) {
+            count++;
+            if (++received == Math.max(1, batch / 2)) {
+                received = 0;
+                subscription.request(Math.max(1, batch / 2));
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            Logger.getLogger(ProducerConsumer.class.getName()).log(Level.SEVERE, null, throwable);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Returns the ring buffer wait strategy matching a command-line option.
+     *
+     * @param name {@code spin}, {@code yield} or {@code park}
+     * @return the wait strategy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    private static RingBufferQueue.WaitStrategy waitStrategy(String name) {
+        return switch (name) {
+            case "spin" -> RingBufferQueue.WaitStrategy.BUSY_SPIN;
+            case "yield" -> RingBufferQueue.WaitStrategy.YIELD;
+            case "park" -> RingBufferQueue.WaitStrategy.PARK;
+            default -> throw new IllegalArgumentException("Unknown wait strategy: " + name);
+        };
+    }
+
+    /**
+     * Passes SPSC_ELEMENTS elements from one producer thread to one consumer
+     * thread through a ring buffer and prints the handoff rate.
+     *
+     * @param strategy the wait strategy of the ring buffer
+     */
+    private static void benchmarkSpsc(RingBufferQueue.WaitStrategy strategy) {
+        RingBufferQueue<String> ring = new RingBufferQueue<>(1024, strategy);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < SPSC_ELEMENTS; i++) {
+                    ring.addElement("A");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread consumer = new Thread(() -> {
+            try {
+                for (int i = 0; i < SPSC_ELEMENTS; i++) {
+                    ring.removeElement();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        long start = System.nanoTime();
+        producer.start();
+        consumer.start();
+        try {
+            producer.join();
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Ring buffer (%s): %.1f million handoffs/s%n", strategy,
+                (double) SPSC_ELEMENTS / elapsed * 1000);
     }
 
     /**
      * Producer thread that attempts to add an element "A" to the shared queue.
      * If the queue is full, it will wait until space becomes available.
      */
-    static class Producer extends Thread {
+    static class Producer implements Runnable {
         @Override
         public void run() {
             String s = "A";
@@ -69,6 +468,8 @@ public class ProducerConsumer {
             } catch (InterruptedException e) {
                 // Restore interrupted status and log if necessary
                 Thread.currentThread().interrupt();
+            } finally {
+                producersDone.incrementAndGet();
             }
         }
     }
@@ -77,7 +478,7 @@ public class ProducerConsumer {
      * Consumer thread that attempts to remove an element from the shared queue.
      * If the queue is empty, it will wait until an element is available.
      */
-    static class Consumer extends Thread {
+    static class Consumer implements Runnable {
         @Override
         public void run() {
             try {
@@ -89,57 +490,229 @@ public class ProducerConsumer {
         }
     }
 
+    /**
+     * The operations of a bounded queue shared by producers and consumers.
+     *
+     * @param <E> the type of the elements
+     */
+    public interface BoundedBuffer<E> {
+
+        /**
+         * Adds an element to the end of the queue, waiting while it is full.
+         *
+         * @param e the element to add
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        void addElement(E e) throws InterruptedException;
+
+        /**
+         * Removes the first element of the queue, waiting while it is empty.
+         *
+         * @return the removed element
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        E removeElement() throws InterruptedException;
+
+        /**
+         * Removes up to max elements from the front of the queue in one
+         * operation, waiting at most the given time while it is empty, and
+         * adds them to a collection in order. A consumer taking a batch this
+         * way pays for one lock round-trip instead of one per element.
+         *
+         * @param c       the collection receiving the elements
+         * @param max     the largest number of elements to remove, positive
+         * @param timeout how long to wait while the queue is empty
+         * @param unit    the unit of the timeout
+         * @return the number of elements removed, 0 if the time elapsed
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        int drainTo(Collection<? super E> c, int max, long timeout, TimeUnit unit) throws InterruptedException;
+
+        /**
+         * Returns the number of elements in the queue.
+         *
+         * @return the element count
+         */
+        int size();
+    }
+
     /**
      * Inner class representing a thread-safe queue with capacity limit.
      * It extends LinkedList and uses explicit locking and condition variables
      * to coordinate producers and consumers.
      */
-    static class MyQueue extends LinkedList<String> {
+    static class MyQueue extends LinkedList<String> implements BoundedBuffer<String> {
         private static final int CAPACITY = 10;
 
+        private final AdaptiveCapacity capacity;
+        private final OverflowPolicy overflow;
+
+        /**
+         * Constructs a queue with the capacity and overflow policy set by the
+         * system properties ({@code -Dcapacity} and {@code -Doverflow}).
+         */
+        MyQueue() {
+            this(AdaptiveCapacity.fromProperty("ProducerConsumer", CAPACITY), OverflowPolicy.fromProperty());
+        }
+
+        /**
+         * Constructs a queue.
+         *
+         * @param capacity the capacity, fixed or adaptive
+         * @param overflow what a producer does when the queue is full
+         */
+        MyQueue(AdaptiveCapacity capacity, OverflowPolicy overflow) {
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
         /**
          * Adds an element to the end of the queue.
-         * If the queue is full, waits until space becomes available.
+         * If the queue is full, the overflow policy decides whether to wait
+         * until space becomes available, drop an element or hand the element
+         * back to the producer.
          *
          * @param s the element to add
          * @throws InterruptedException if the thread is interrupted while waiting
          */
+        @Override
         public void addElement(String s) throws InterruptedException {
+            boolean rejected = false;
             lock.lock();
             try {
-                // Wait until queue has space to add new element
-                while (size() == CAPACITY) {
-                    isFull.await();
+                // Wait until queue has space to add new element, if the policy says so
+                switch (overflow.awaitRoom(isFull, () -> capacity.isFull(size()))) {
+                    case ADD -> super.addLast(s);
+                    case DROP_OLDEST -> {
+                        dropped(super.removeFirst());
+                        super.addLast(s);
+                    }
+                    case REJECT -> rejected = true;
+                }
+                if (!rejected) {
+                    depth.record(size());
+                    capacity.sample(size());
+                    if (verbose && EventLog.INFO) {
+                        EventLog.log(ADDED, size(), s);
+                    }
+                    // Signal consumers waiting for non-empty queue
+                    isEmpty.signal();
                 }
-                super.addLast(s);
-                System.out.println(s + " is added");
-                // Signal consumers waiting for non-empty queue
-                isEmpty.signal();
             } finally {
                 lock.unlock();
             }
+            if (rejected) {
+                if (overflow == OverflowPolicy.CALLER_RUNS) {
+                    // Do what a consumer would do, out of the lock
+                    if (verbose && EventLog.INFO) {
+                        EventLog.log(CONSUMED_BY_PRODUCER, -1, s);
+                    }
+                } else {
+                    dropped(s);
+                }
+            }
         }
 
         /**
          * Removes and returns the first element from the queue.
          * If the queue is empty, waits until an element becomes available.
          *
+         * @return the removed element
          * @throws InterruptedException if the thread is interrupted while waiting
          */
-        public void removeElement() throws InterruptedException {
+        @Override
+        public String removeElement() throws InterruptedException {
             lock.lock();
             try {
                 // Wait until queue is not empty
                 while (size() == 0) {
                     isEmpty.await();
                 }
-                super.removeFirst();
-                System.out.println("An element was removed");
+                String s = super.removeFirst();
+                depth.record(size());
+                capacity.sample(size());
+                if (verbose && EventLog.INFO) {
+                    EventLog.log(REMOVED, size(), s);
+                }
                 // Signal producers waiting for space in the queue
                 isFull.signal();
+                return s;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Removes up to max elements under one acquisition of the lock,
+         * waiting at most the given time while the queue is empty.
+         *
+         * @param c       the collection receiving the elements
+         * @param max     the largest number of elements to remove
+         * @param timeout how long to wait while the queue is empty
+         * @param unit    the unit of the timeout
+         * @return the number of elements removed, 0 if the time elapsed
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        @Override
+        public int drainTo(Collection<? super String> c, int max, long timeout, TimeUnit unit)
+                throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                // Wait until queue is not empty, or the time elapsed
+                while (size() == 0) {
+                    if (nanos <= 0) {
+                        return 0;
+                    }
+                    nanos = isEmpty.awaitNanos(nanos);
+                }
+                int n = Math.min(max, size());
+                for (int i = 0; i < n; i++) {
+                    String s = super.removeFirst();
+                    c.add(s);
+                    if (verbose && EventLog.INFO) {
+                        EventLog.log(REMOVED, size(), s);
+                    }
+                }
+                depth.record(size());
+                capacity.sample(size());
+                // Signal as many producers waiting for space as slots were freed, not all
+                // of them: with thousands of waiting producers, most would wait again
+                for (int i = 0; i < n; i++) {
+                    isFull.signal();
+                }
+                // Elements left for the other consumers
+                if (size() > 0) {
+                    isEmpty.signal();
+                }
+                return n;
             } finally {
                 lock.unlock();
             }
         }
+
+        /**
+         * Returns the current capacity of the queue.
+         *
+         * @return the capacity
+         */
+        int capacity() {
+            lock.lock();
+            try {
+                return capacity.get();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Counts and logs an element dropped by the overflow policy.
+         */
+        private void dropped(String s) {
+            dropped.increment();
+            if (verbose && EventLog.INFO) {
+                EventLog.log(DROPPED, -1, s);
+            }
+        }
     }
 }
@@ -0,0 +1,128 @@
+package Ex6_ProducerConsumer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A stage of a reactive pipeline: it buffers the elements of the upstream
+ * publisher in its own bounded queue, and applies a function to them on its
+ * own executor before passing them downstream through a
+ * {@link QueuePublisher}.
+ * <p>
+ * The stage never requests more elements from upstream than its buffer has
+ * room for: it requests a full buffer first, then half a buffer each time half
+ * a buffer has been passed downstream. Adding to the buffer thus never waits,
+ * and a slow downstream stage slows down the upstream one through the demand
+ * alone, whatever the number of stages.
+ *
+ * @param <T> the type of the elements received
+ * @param <R> the type of the elements published
+ */
+class QueueProcessor<T, R> implements Flow.Processor<T, R> {
+
+    private final Function<? super T, ? extends R> function;
+    private final int capacity;
+    private final TwoLockQueue<T> buffer;
+    private final QueuePublisher<T> publisher;
+
+    // Elements passed downstream since the last request upstream
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    private volatile Flow.Subscription upstream;
+
+    /**
+     * Constructs a stage.
+     *
+     * @param function the function applied to each element
+     * @param capacity the number of elements buffered, at least 2
+     * @param executor the executor running the function and the deliveries
+     * @param maxBatch the largest number of elements taken from the buffer at once
+     */
+    QueueProcessor(Function<? super T, ? extends R> function, int capacity, Executor executor, int maxBatch) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.function = function;
+        this.capacity = capacity;
+        this.buffer = new TwoLockQueue<>(capacity);
+        this.publisher = new QueuePublisher<>(buffer, executor, maxBatch);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            // Only one upstream publisher
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(capacity);
+    }
+
+    /**
+     * Buffers an element. There is room for it, as long as the upstream
+     * publisher respects the demand.
+     *
+     * @param item the element
+     */
+    @Override
+    public void onNext(T item) {
+        try {
+            buffer.addElement(item);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            upstream.cancel();
+            publisher.closeExceptionally(ex);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        publisher.closeExceptionally(throwable);
+    }
+
+    /**
+     * Completes the downstream subscribers once the buffer is empty.
+     */
+    @Override
+    public void onComplete() {
+        publisher.close();
+    }
+
+    /**
+     * Adds a downstream subscriber, receiving the results of the function.
+     *
+     * @param subscriber the subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        publisher.subscribe(new Flow.Subscriber<T>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(T item) {
+                subscriber.onNext(function.apply(item));
+                // Half of the buffer is free again: ask for as many elements
+                int half = capacity / 2;
+                if (delivered.incrementAndGet() % half == 0) {
+                    upstream.request(half);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+    }
+}
@@ -0,0 +1,255 @@
+package Ex6_ProducerConsumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Flow.Publisher} of the elements of a bounded queue, so that the
+ * consumers of {@link ProducerConsumer} can be reactive-streams subscribers
+ * instead of one-shot tasks each removing a single element.
+ * <p>
+ * A subscriber signals with {@code request(n)} how many elements it can take.
+ * Its subscription then removes up to that many elements (at most maxBatch at
+ * a time) with one {@link ProducerConsumer.BoundedBuffer#drainTo drainTo}
+ * call, that is one lock round-trip per batch rather than per element, and
+ * delivers them with onNext. Without demand, nothing is removed: the queue
+ * fills up and its producers wait, which is how the backpressure of a
+ * subscriber reaches the producers.
+ * <p>
+ * The signals of a subscription run on the executor, one task at a time (a
+ * work-in-progress counter makes sure a task is scheduled only when none is
+ * running). While the queue is empty, a task waits for elements at most
+ * POLL_MILLIS, then resubmits itself, so the subscriptions sharing an executor
+ * take turns. Several subscribers share the elements, as consumers do.
+ * <p>
+ * Once {@link #close()} is called, the subscribers complete when the queue is
+ * empty. It must be called after the last element has been added.
+ *
+ * @param <E> the type of the elements
+ */
+class QueuePublisher<E> implements Flow.Publisher<E>, AutoCloseable {
+
+    /**
+     * Longest wait of a subscription task for an element, in milliseconds.
+     */
+    private static final long POLL_MILLIS = 10;
+
+    private final ProducerConsumer.BoundedBuffer<E> queue;
+    private final Executor executor;
+    private final int maxBatch;
+
+    private final List<QueueSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // Set once no element will be added anymore
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Constructs a publisher of the elements of a queue.
+     *
+     * @param queue    the queue
+     * @param executor the executor running the subscriptions
+     * @param maxBatch the largest number of elements removed at once
+     */
+    QueuePublisher(ProducerConsumer.BoundedBuffer<E> queue, Executor executor, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatch);
+        }
+        this.queue = queue;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Adds a subscriber. Its onSubscribe method is called on the executor.
+     *
+     * @param subscriber the subscriber
+     * @throws NullPointerException if the subscriber is null
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super E> subscriber) {
+        Objects.requireNonNull(subscriber);
+        QueueSubscription subscription = new QueueSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscription.schedule();
+    }
+
+    /**
+     * Tells that no element will be added anymore: the subscribers complete
+     * once the queue is empty.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // A subscriber without demand must complete too
+        for (QueueSubscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Fails the subscribers without waiting for the queue to be empty.
+     *
+     * @param error the error passed to onError
+     */
+    void closeExceptionally(Throwable error) {
+        failure = Objects.requireNonNull(error);
+        close();
+    }
+
+    /**
+     * The subscription of one subscriber, also the task delivering its
+     * signals.
+     */
+    private final class QueueSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super E> subscriber;
+
+        // Requested elements not yet delivered
+        private final AtomicLong demand = new AtomicLong();
+
+        // Number of times the task was scheduled and not yet run
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        // Only used by the task, which runs on one thread at a time
+        private boolean subscribed;
+        private final List<E> batch = new ArrayList<>();
+
+        QueueSubscription(Flow.Subscriber<? super E> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Adds to the demand, capped to Long.MAX_VALUE, and schedules the
+         * delivery.
+         *
+         * @param n the number of elements requested, positive
+         */
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            schedule();
+        }
+
+        /**
+         * Stops the deliveries. The elements not yet removed stay in the queue
+         * for the other subscribers.
+         */
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Runs the task unless it is already running or scheduled, in which
+         * case it will see the new state before it stops.
+         */
+        void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                if (deliver()) {
+                    return;
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Delivers batches while there is demand.
+         *
+         * @return true if the task was resubmitted or the subscription ended,
+         *         false if the demand is exhausted
+         */
+        private boolean deliver() {
+            while (!cancelled) {
+                if (invalidRequest != null || failure != null) {
+                    fail(invalidRequest != null ? invalidRequest : failure);
+                    return true;
+                }
+                // Read before looking at the queue: once closed, an empty queue stays empty
+                boolean done = closed;
+                long requested = demand.get();
+                if (requested == 0) {
+                    if (done && queue.size() == 0) {
+                        complete();
+                        return true;
+                    }
+                    return false;
+                }
+                int n;
+                try {
+                    n = queue.drainTo(batch, (int) Math.min(requested, maxBatch), done ? 0 : POLL_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    fail(ex);
+                    return true;
+                }
+                if (n == 0) {
+                    if (done) {
+                        complete();
+                    } else {
+                        // Let the other tasks of the executor run before waiting again
+                        executor.execute(this);
+                    }
+                    return true;
+                }
+                try {
+                    for (E e : batch) {
+                        subscriber.onNext(e);
+                    }
+                } catch (RuntimeException ex) {
+                    // A subscriber must not throw: give up on it
+                    Logger.getLogger(QueuePublisher.class.getName()).log(Level.SEVERE, null, ex);
+                    cancel();
+                    return true;
+                } finally {
+                    batch.clear();
+                }
+                demand.addAndGet(-n);
+            }
+            return true;
+        }
+
+        private void complete() {
+            cancel();
+            subscriber.onComplete();
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            subscriber.onError(error);
+        }
+    }
+}
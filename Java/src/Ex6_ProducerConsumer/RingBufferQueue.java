@@ -0,0 +1,301 @@
+package Ex6_ProducerConsumer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue on a preallocated ring of slots (in the spirit of the LMAX
+ * Disruptor), used as an allocation-free alternative to
+ * {@link ProducerConsumer.MyQueue}.
+ * <p>
+ * Each slot carries a sequence number telling whether it is ready to be
+ * written (for the n-th lap of the producers) or read (for the n-th lap of
+ * the consumers). Producers claim a position by incrementing the producer
+ * sequence and consumers by incrementing the consumer sequence; with a
+ * single producer and a single consumer these compare-and-swaps never fail.
+ * The two sequences are padded onto their own cache lines so the producer and
+ * the consumer do not invalidate each other's line (false sharing).
+ * <p>
+ * Nothing is allocated on the hot path: slots are reused lap after lap. When
+ * the ring is full or empty, the waiting thread idles according to its
+ * {@link WaitStrategy}, without any lock or condition.
+ *
+ * @param <E> the type of the elements
+ */
+class RingBufferQueue<E> implements ProducerConsumer.BoundedBuffer<E> {
+
+    private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    /**
+     * How a thread waits when the ring is full (producer) or empty (consumer).
+     */
+    enum WaitStrategy {
+
+        /**
+         * Spins on the CPU: lowest latency, burns a core per waiting thread.
+         */
+        BUSY_SPIN {
+            @Override
+            int idle(int counter) {
+                Thread.onSpinWait();
+                return counter + 1;
+            }
+        },
+
+        /**
+         * Spins briefly, then yields the CPU to other threads.
+         */
+        YIELD {
+            @Override
+            int idle(int counter) {
+                if (counter < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                return counter + 1;
+            }
+        },
+
+        /**
+         * Spins, then yields, then parks for short periods: lowest CPU use.
+         */
+        PARK {
+            @Override
+            int idle(int counter) {
+                if (counter < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (counter < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+                return counter + 1;
+            }
+        };
+
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 100;
+        private static final long PARK_NANOS = 1_000;
+
+        /**
+         * Waits once.
+         *
+         * @param counter the number of times the thread already waited
+         * @return the new value of the counter
+         */
+        abstract int idle(int counter);
+    }
+
+    /**
+     * A sequence counter alone on its cache line. The padding fields are in
+     * superclasses and a subclass because the JVM keeps the fields of a class
+     * after those of its superclass.
+     */
+    private static class LhsPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private static class Sequence extends LhsPadding {
+        volatile long value;
+    }
+
+    private static final class PaddedSequence extends Sequence {
+        long p09, p10, p11, p12, p13, p14, p15;
+
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(Sequence.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        boolean compareAndSet(long expected, long next) {
+            return VALUE.compareAndSet(this, expected, next);
+        }
+    }
+
+    private final Object[] slots;
+    private final long[] sequences;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    private final PaddedSequence producerSequence = new PaddedSequence();
+    private final PaddedSequence consumerSequence = new PaddedSequence();
+
+    /**
+     * Constructs a ring buffer.
+     *
+     * @param capacity     the minimum number of slots, rounded up to a power of two
+     * @param waitStrategy how threads wait on a full or empty ring
+     */
+    RingBufferQueue(int capacity, WaitStrategy waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.sequences = new long[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < size; i++) {
+            sequences[i] = i;
+        }
+    }
+
+    /**
+     * Adds an element without waiting.
+     *
+     * @param e the element to add
+     * @return false if the ring is full
+     * @throws NullPointerException if the element is null
+     */
+    boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long position = producerSequence.value;
+        while (true) {
+            int index = (int) position & mask;
+            long sequence = (long) SEQUENCES.getAcquire(sequences, index);
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (producerSequence.compareAndSet(position, position + 1)) {
+                    SLOTS.setRelease(slots, index, e);
+                    // Publish the slot to the consumer of this lap
+                    SEQUENCES.setRelease(sequences, index, position + 1);
+                    return true;
+                }
+                position = producerSequence.value;
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = producerSequence.value;
+            }
+        }
+    }
+
+    /**
+     * Removes an element without waiting.
+     *
+     * @return the element, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long position = consumerSequence.value;
+        while (true) {
+            int index = (int) position & mask;
+            long sequence = (long) SEQUENCES.getAcquire(sequences, index);
+            long difference = sequence - (position + 1);
+            if (difference == 0) {
+                if (consumerSequence.compareAndSet(position, position + 1)) {
+                    E e = (E) SLOTS.getAcquire(slots, index);
+                    SLOTS.setRelease(slots, index, null);
+                    // Hand the slot back to the producer of the next lap
+                    SEQUENCES.setRelease(sequences, index, position + mask + 1);
+                    return e;
+                }
+                position = consumerSequence.value;
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = consumerSequence.value;
+            }
+        }
+    }
+
+    /**
+     * Adds an element, idling with the wait strategy while the ring is full.
+     *
+     * @param e the element to add
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public void addElement(E e) throws InterruptedException {
+        int counter = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            counter = waitStrategy.idle(counter);
+        }
+    }
+
+    /**
+     * Removes an element, idling with the wait strategy while the ring is empty.
+     *
+     * @return the removed element
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public E removeElement() throws InterruptedException {
+        int counter = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            counter = waitStrategy.idle(counter);
+        }
+        return e;
+    }
+
+    /**
+     * Removes up to max elements, idling with the wait strategy at most the
+     * given time while the ring is empty. There is no lock to amortize: the
+     * elements are polled one by one, but without idling between them.
+     *
+     * @param c       the collection receiving the elements
+     * @param max     the largest number of elements to remove
+     * @param timeout how long to wait while the ring is empty
+     * @param unit    the unit of the timeout
+     * @return the number of elements removed, 0 if the time elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int counter = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return 0;
+            }
+            counter = waitStrategy.idle(counter);
+        }
+        int n = 0;
+        do {
+            c.add(e);
+            n++;
+        } while (n < max && (e = poll()) != null);
+        return n;
+    }
+
+    /**
+     * Returns the number of elements, read from the two sequences.
+     *
+     * @return the element count
+     */
+    @Override
+    public int size() {
+        long consumed = consumerSequence.value;
+        long produced = producerSequence.value;
+        return (int) Math.max(0, Math.min(produced - consumed, mask + 1));
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,244 @@
+package Ex6_ProducerConsumer;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import EventLog.EventLog;
+
+/**
+ * A bounded linked queue with one lock for the producers and another one for
+ * the consumers (the two-lock queue of Michael and Scott), used as an
+ * alternative to {@link ProducerConsumer.MyQueue}.
+ * <p>
+ * Producers only touch the tail and consumers only touch the head, which is
+ * a dummy node, so a producer and a consumer never hold the same lock and
+ * proceed in parallel while the queue is neither empty nor full. The number
+ * of elements is an AtomicInteger shared by both sides.
+ * <p>
+ * A side only takes the lock of the other side to signal it on a transition:
+ * a producer signals the consumers when the queue goes from empty to not
+ * empty, and a consumer signals the producers when it goes from full to not
+ * full. Between two transitions, a waiting thread of one side is woken up by
+ * the threads of its own side (cascading signals).
+ * <p>
+ * The queue is public so that other exercises can pass their own elements
+ * through it. It only logs the events it is given: ProducerConsumer passes
+ * its own when it prints the elements.
+ *
+ * @param <E> the type of the elements
+ */
+public class TwoLockQueue<E> implements ProducerConsumer.BoundedBuffer<E> {
+
+    /**
+     * A node of the list. The item of the head node is always null.
+     */
+    private static final class Node<E> {
+        E item;
+        Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicInteger count = new AtomicInteger();
+
+    // Events logged on each addition and removal, or null
+    private final EventLog.Event added;
+    private final EventLog.Event removed;
+
+    // Consumers' side: the head and its lock
+    private Node<E> head;
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Condition notEmpty = takeLock.newCondition();
+
+    // Producers' side: the tail and its lock
+    private Node<E> tail;
+    private final ReentrantLock putLock = new ReentrantLock();
+    private final Condition notFull = putLock.newCondition();
+
+    /**
+     * Constructs an empty queue that logs nothing.
+     *
+     * @param capacity the maximum number of elements
+     */
+    public TwoLockQueue(int capacity) {
+        this(capacity, null, null);
+    }
+
+    /**
+     * Constructs an empty queue.
+     *
+     * @param capacity the maximum number of elements
+     * @param added    the event logged with each added element, or null
+     * @param removed  the event logged with each removed element, or null
+     */
+    public TwoLockQueue(int capacity, EventLog.Event added, EventLog.Event removed) {
+        this.capacity = capacity;
+        this.added = added;
+        this.removed = removed;
+        head = tail = new Node<>(null);
+    }
+
+    /**
+     * Adds an element to the end of the queue, waiting while it is full.
+     *
+     * @param e the element to add
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public void addElement(E e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        int c;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() == capacity) {
+                notFull.await();
+            }
+            tail = tail.next = new Node<>(e);
+            c = count.getAndIncrement();
+            // Still room: wake up the next producer ourselves
+            if (c + 1 < capacity) {
+                notFull.signal();
+            }
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0) {
+            signalNotEmpty();
+        }
+        if (added != null && EventLog.INFO) {
+            EventLog.log(added, c + 1, e);
+        }
+    }
+
+    /**
+     * Removes the first element of the queue, waiting while it is empty.
+     *
+     * @return the removed element
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public E removeElement() throws InterruptedException {
+        E e;
+        int c;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                notEmpty.await();
+            }
+            // The first node becomes the new dummy head
+            Node<E> first = head.next;
+            // Unlink the old head from the list to help the garbage collector
+            head.next = head;
+            head = first;
+            e = first.item;
+            first.item = null;
+            c = count.getAndDecrement();
+            // Still elements: wake up the next consumer ourselves
+            if (c > 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == capacity) {
+            signalNotFull();
+        }
+        if (removed != null && EventLog.INFO) {
+            EventLog.log(removed, c - 1, e);
+        }
+        return e;
+    }
+
+    /**
+     * Removes up to max elements under one acquisition of the consumers' lock,
+     * waiting at most the given time while the queue is empty.
+     *
+     * @param c       the collection receiving the elements
+     * @param max     the largest number of elements to remove
+     * @param timeout how long to wait while the queue is empty
+     * @param unit    the unit of the timeout
+     * @return the number of elements removed, 0 if the time elapsed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        int n;
+        int before;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            // Only the consumers remove elements, and they hold the lock: at least n are there
+            n = Math.min(max, count.get());
+            for (int i = 0; i < n; i++) {
+                Node<E> first = head.next;
+                head.next = head;
+                head = first;
+                c.add(first.item);
+                first.item = null;
+            }
+            before = count.getAndAdd(-n);
+            // Still elements: wake up the next consumer ourselves
+            if (before > n) {
+                notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        if (before == capacity) {
+            signalNotFull();
+        }
+        if (removed != null && EventLog.INFO) {
+            for (int i = 0; i < n; i++) {
+                EventLog.log(removed, before - n, null);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return the element count
+     */
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * Wakes up a waiting consumer after the queue went from empty to not empty.
+     */
+    private void signalNotEmpty() {
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up a waiting producer after the queue went from full to not full.
+     */
+    private void signalNotFull() {
+        putLock.lock();
+        try {
+            notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package Metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative long values (durations in
+ * nanoseconds, queue depths, ...) with a bounded relative error, in the
+ * spirit of HdrHistogram.
+ * <p>
+ * Values below 16 have their own bucket. Above, every power of two is split
+ * into 16 buckets of equal width, so a value is known within 1/16 (6.25%) of
+ * its magnitude, whatever that magnitude, with 960 buckets in all.
+ * <p>
+ * Recording must be cheap on the hot paths being measured, so the counts are
+ * kept in several stripes and a thread records into the stripe chosen by its
+ * id: threads on different stripes never write the same cache line. The
+ * stripes are merged when the histogram is read. There is a fixed number of
+ * stripes rather than one per thread, so the memory used stays bounded with
+ * millions of (virtual) threads.
+ */
+public final class Histogram implements Metrics.HistogramMXBean {
+
+    /**
+     * Number of bits of a value kept below its highest one bit.
+     */
+    private static final int SUB_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Number of buckets: exact values below 16, then 16 buckets for each
+     * power of two up to 2^62.
+     */
+    private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+    private final String name;
+    private final boolean enabled;
+    private final AtomicLongArray[] stripes;
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs an empty histogram.
+     *
+     * @param name    the name of the histogram
+     * @param enabled false to ignore all the recorded values
+     */
+    Histogram(String name, boolean enabled) {
+        this.name = name;
+        this.enabled = enabled;
+        this.stripes = new AtomicLongArray[enabled ? STRIPES : 0];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (!enabled) {
+            return;
+        }
+        long v = Math.max(0, value);
+        int stripe = (int) Thread.currentThread().threadId() & (stripes.length - 1);
+        stripes[stripe].getAndIncrement(bucket(v));
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Returns the name of the histogram.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Merges the stripes into a snapshot.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                counts[i] += c;
+                total += c;
+            }
+        }
+        return new Snapshot(counts, total, sum.sum(), max.get());
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().count();
+    }
+
+    @Override
+    public double getMean() {
+        return snapshot().mean();
+    }
+
+    @Override
+    public long getMedian() {
+        return snapshot().percentile(0.5);
+    }
+
+    @Override
+    public long getP99() {
+        return snapshot().percentile(0.99);
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The merged counts of a histogram at one moment. The count, sum and
+     * maximum are read separately from the buckets, so they may include a few
+     * values recorded while the snapshot was taken.
+     *
+     * @param counts the number of values per bucket
+     * @param count  the total number of values
+     * @param sum    the sum of the values
+     * @param max    the largest value
+     */
+    public record Snapshot(long[] counts, long count, long sum, long max) {
+
+        /**
+         * Returns the mean of the values.
+         *
+         * @return the mean, or 0 if there is none
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the values are,
+         * within the precision of the buckets.
+         *
+         * @param fraction a fraction between 0 and 1
+         * @return the percentile, or 0 if there is no value
+         */
+        public long percentile(double fraction) {
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, middle(i));
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the bucket of a non-negative value.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the value in the middle of a bucket.
+     */
+    static long middle(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lowest + width / 2;
+    }
+}
@@ -0,0 +1,202 @@
+package Metrics;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ReentrantLock that records how long threads wait for it and hold it, and
+ * whose conditions record how long threads wait on them and how often they
+ * are signaled. Created by {@link Metrics#newLock(String)}.
+ * <p>
+ * The hold time covers the outermost hold only: a reentrant acquisition does
+ * not start a new measure. Waiting on a condition ends the current hold, and
+ * getting the lock back starts a new one.
+ */
+final class InstrumentedLock implements Lock {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Histogram waitTime;
+    private final Histogram holdTime;
+
+    // Start of the current hold, only accessed by the owner of the lock
+    private long holdStart;
+
+    /**
+     * Constructs an instrumented lock.
+     *
+     * @param name the name of the lock in the metrics
+     */
+    InstrumentedLock(String name) {
+        this.waitTime = Metrics.histogram(name + ".wait");
+        this.holdTime = Metrics.histogram(name + ".hold");
+    }
+
+    @Override
+    public void lock() {
+        long start = System.nanoTime();
+        lock.lock();
+        acquired(start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        acquired(start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        if (lock.getHoldCount() == 1) {
+            holdStart = System.nanoTime();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        if (!lock.tryLock(time, unit)) {
+            return false;
+        }
+        acquired(start);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (lock.isHeldByCurrentThread() && lock.getHoldCount() == 1) {
+            holdTime.record(System.nanoTime() - holdStart);
+        }
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return newCondition("condition");
+    }
+
+    /**
+     * Creates an instrumented condition of this lock.
+     *
+     * @param name the name of the condition in the metrics
+     * @return a new condition
+     */
+    Condition newCondition(String name) {
+        return new InstrumentedCondition(lock.newCondition(), name);
+    }
+
+    /**
+     * Records the wait for the lock and starts the hold, unless it is a
+     * reentrant acquisition.
+     */
+    private void acquired(long start) {
+        if (lock.getHoldCount() == 1) {
+            long now = System.nanoTime();
+            waitTime.record(now - start);
+            holdStart = now;
+        }
+    }
+
+    /**
+     * A condition recording the time spent waiting on it and the signals.
+     */
+    private final class InstrumentedCondition implements Condition {
+
+        private final Condition condition;
+        private final Histogram awaitTime;
+        private final Metrics.Counter signals;
+
+        InstrumentedCondition(Condition condition, String name) {
+            this.condition = condition;
+            this.awaitTime = Metrics.histogram(name + ".await");
+            this.signals = Metrics.counter(name + ".signals");
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            long start = beginWait();
+            try {
+                condition.await();
+            } finally {
+                endWait(start);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            long start = beginWait();
+            try {
+                condition.awaitUninterruptibly();
+            } finally {
+                endWait(start);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            long start = beginWait();
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            } finally {
+                endWait(start);
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            long start = beginWait();
+            try {
+                return condition.await(time, unit);
+            } finally {
+                endWait(start);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            long start = beginWait();
+            try {
+                return condition.awaitUntil(deadline);
+            } finally {
+                endWait(start);
+            }
+        }
+
+        @Override
+        public void signal() {
+            signals.increment();
+            condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            signals.increment();
+            condition.signalAll();
+        }
+
+        /**
+         * Ends the current hold before the lock is released by the wait.
+         */
+        private long beginWait() {
+            long now = System.nanoTime();
+            holdTime.record(now - holdStart);
+            return now;
+        }
+
+        /**
+         * Records the wait and starts a new hold, the lock being held again.
+         */
+        private void endWait(long start) {
+            long now = System.nanoTime();
+            awaitTime.record(now - start);
+            holdStart = now;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package Metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Optional instrumentation of the locks, conditions and queues of the
+ * exercises, turned on with {@code -Dmetrics=true}.
+ * <p>
+ * When it is off, {@link #newLock(String)} and
+ * {@link #newCondition(Lock, String)} return the plain ReentrantLock and
+ * Condition, and the histograms ignore what they record, so the exercises run
+ * exactly as before. When it is on, they return an {@link InstrumentedLock}
+ * and its conditions, which record:
+ * <ul>
+ * <li>{@code <lock>.wait}: the time spent waiting to acquire the lock</li>
+ * <li>{@code <lock>.hold}: the time the lock is held, not counting the time
+ * spent waiting on one of its conditions</li>
+ * <li>{@code <condition>.await}: the time spent waiting on a condition,
+ * including getting the lock back</li>
+ * <li>{@code <condition>.signals}: the number of signal and signalAll calls</li>
+ * </ul>
+ * Histograms of other values, such as queue depths, are made with
+ * {@link #histogram(String)}. Every metric is registered as an MXBean in the
+ * {@code Metrics} JMX domain (visible in JConsole or VisualVM), and all of
+ * them are printed to the standard error when the program exits and, with
+ * {@code -Dmetrics.dump=seconds}, periodically.
+ */
+public final class Metrics {
+
+    /**
+     * Whether the instrumentation is on.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("metrics");
+
+    private static final Map<String, Object> METRICS = new ConcurrentSkipListMap<>();
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(System.err)));
+            long period = Long.getLong("metrics.dump", 0);
+            if (period > 0) {
+                ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "metrics-dump");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.scheduleAtFixedRate(() -> dump(System.err), period, period, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * The JMX view of a {@link Histogram}. Durations are in nanoseconds.
+     */
+    public interface HistogramMXBean {
+
+        long getCount();
+
+        double getMean();
+
+        long getMedian();
+
+        long getP99();
+
+        long getMax();
+    }
+
+    /**
+     * The JMX view of a {@link Counter}.
+     */
+    public interface CounterMXBean {
+
+        long getCount();
+    }
+
+    /**
+     * A striped event counter.
+     */
+    public static final class Counter implements CounterMXBean {
+
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Counts one event.
+         */
+        public void increment() {
+            if (ENABLED) {
+                count.increment();
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Creates a lock, instrumented if the instrumentation is on.
+     *
+     * @param name the name of the lock in the metrics
+     * @return a new lock
+     */
+    public static Lock newLock(String name) {
+        return ENABLED ? new InstrumentedLock(name) : new ReentrantLock();
+    }
+
+    /**
+     * Creates a condition of a lock, instrumented if the lock is.
+     *
+     * @param lock the lock, from {@link #newLock(String)}
+     * @param name the name of the condition in the metrics
+     * @return a new condition
+     */
+    public static Condition newCondition(Lock lock, String name) {
+        return lock instanceof InstrumentedLock instrumented ? instrumented.newCondition(name) : lock.newCondition();
+    }
+
+    /**
+     * Returns the histogram of the given name, creating it if needed. When
+     * the instrumentation is off, the histogram ignores the recorded values.
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public static Histogram histogram(String name) {
+        if (!ENABLED) {
+            return new Histogram(name, false);
+        }
+        return (Histogram) getOrRegister(name, new Histogram(name, true));
+    }
+
+    /**
+     * Returns the counter of the given name, creating it if needed.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        if (!ENABLED) {
+            return new Counter();
+        }
+        return (Counter) getOrRegister(name, new Counter());
+    }
+
+    /**
+     * Prints all the metrics, sorted by name: count, mean, median, 99th
+     * percentile and maximum of the histograms (durations in microseconds for
+     * the names ending with wait, hold or await), and the counters.
+     *
+     * @param out the stream to print to
+     */
+    public static void dump(PrintStream out) {
+        StringBuilder sb = new StringBuilder("---- Metrics (durations in microseconds) ----\n");
+        sb.append(String.format("%-48s %12s %12s %12s %12s %12s%n", "name", "count", "mean", "p50", "p99", "max"));
+        for (Map.Entry<String, Object> entry : METRICS.entrySet()) {
+            String name = entry.getKey();
+            if (entry.getValue() instanceof Histogram histogram) {
+                Histogram.Snapshot s = histogram.snapshot();
+                double scale = name.endsWith("wait") || name.endsWith("hold") ? 1000.0 : 1;
+                sb.append(String.format("%-48s %12d %12.1f %12.1f %12.1f %12.1f%n", name, s.count(),
+                        s.mean() / scale, s.percentile(0.5) / scale, s.percentile(0.99) / scale, s.max() / scale));
+            } else {
+                sb.append(String.format("%-48s %12d%n", name, ((Counter) entry.getValue()).getCount()));
+            }
+        }
+        out.print(sb);
+    }
+
+    /**
+     * Returns the metric of the given name, or adds the given one. When two
+     * threads create the same metric, only the one added to the map is
+     * registered, so the MXBean is the instance that records the values.
+     */
+    private static Object getOrRegister(String name, Object metric) {
+        Object existing = METRICS.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        existing = METRICS.putIfAbsent(name, metric);
+        if (existing != null) {
+            return existing;
+        }
+        register(name, metric);
+        return metric;
+    }
+
+    /**
+     * Registers a metric as an MXBean named {@code Metrics:name=<name>}.
+     */
+    private static void register(String name, Object metric) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metric,
+                    new ObjectName("Metrics", "name", ObjectName.quote(name)));
+        } catch (JMException ex) {
+            Logger.getLogger(Metrics.class.getName()).log(Level.WARNING, "Cannot register metric " + name, ex);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package Overflow;
+
+import Metrics.Histogram;
+import Metrics.Metrics;
+
+/**
+ * The capacity of a bounded queue, either fixed or adapting to the load
+ * between a minimum and a maximum, set with {@code -Dcapacity=n} or
+ * {@code -Dcapacity=min..max}.
+ * <p>
+ * An adaptive capacity starts at its minimum. When a producer finds the queue
+ * full, the consumers are lagging behind: the capacity doubles, up to the
+ * maximum, so a burst of producers does not stall on a tiny buffer. The queue
+ * reports its size after each operation, and when the occupancy stayed below
+ * a quarter of the capacity during a whole window of operations, the capacity
+ * halves, down to the minimum, so an idle queue does not keep room for a
+ * backlog it no longer has. The maximum bounds the memory a backlog may take.
+ * <p>
+ * This class is not thread-safe: it is guarded by the lock of its queue. The
+ * successive capacities are recorded in the {@code <name>.capacity} histogram
+ * (with {@code -Dmetrics=true}).
+ */
+public final class AdaptiveCapacity {
+
+    /**
+     * Number of operations over which the occupancy is observed before
+     * shrinking.
+     */
+    private static final int WINDOW = 256;
+
+    private final int min;
+    private final int max;
+    private int capacity;
+
+    // Operations and largest size since the start of the window
+    private int operations;
+    private int peak;
+
+    private final Histogram resizes;
+
+    /**
+     * Constructs a fixed capacity.
+     *
+     * @param name     the name of the queue in the metrics
+     * @param capacity the capacity
+     */
+    public AdaptiveCapacity(String name, int capacity) {
+        this(name, capacity, capacity);
+    }
+
+    /**
+     * Constructs a capacity adapting between two bounds, starting at the
+     * minimum.
+     *
+     * @param name the name of the queue in the metrics
+     * @param min  the smallest capacity
+     * @param max  the largest capacity
+     * @throws IllegalArgumentException if the bounds are not positive and in order
+     */
+    public AdaptiveCapacity(String name, int min, int max) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Invalid capacity bounds: " + min + ".." + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.capacity = min;
+        this.resizes = Metrics.histogram(name + ".capacity");
+    }
+
+    /**
+     * Returns the capacity set with {@code -Dcapacity}.
+     *
+     * @param name            the name of the queue in the metrics
+     * @param defaultCapacity the fixed capacity when the property is not set
+     * @return the capacity
+     * @throws IllegalArgumentException if the property is malformed
+     */
+    public static AdaptiveCapacity fromProperty(String name, int defaultCapacity) {
+        String spec = System.getProperty("capacity");
+        return spec == null ? new AdaptiveCapacity(name, defaultCapacity) : parse(name, spec);
+    }
+
+    /**
+     * Parses a capacity.
+     *
+     * @param name the name of the queue in the metrics
+     * @param spec {@code n} for a fixed capacity, {@code min..max} for an
+     *             adaptive one
+     * @return the capacity
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static AdaptiveCapacity parse(String name, String spec) {
+        int range = spec.indexOf("..");
+        if (range < 0) {
+            return new AdaptiveCapacity(name, Integer.parseInt(spec.trim()));
+        }
+        return new AdaptiveCapacity(name, Integer.parseInt(spec.substring(0, range).trim()),
+                Integer.parseInt(spec.substring(range + 2).trim()));
+    }
+
+    /**
+     * Returns the current capacity.
+     *
+     * @return the capacity
+     */
+    public int get() {
+        return capacity;
+    }
+
+    /**
+     * Returns the largest capacity.
+     *
+     * @return the maximum
+     */
+    public int max() {
+        return max;
+    }
+
+    /**
+     * Tells whether a queue of the given size is full, after growing the
+     * capacity if it is adaptive and below its maximum.
+     *
+     * @param size the number of elements in the queue
+     * @return true if there is no room for another element
+     */
+    public boolean isFull(int size) {
+        if (size < capacity) {
+            return false;
+        }
+        if (capacity == max) {
+            return true;
+        }
+        resize((int) Math.min(max, 2L * capacity));
+        return size >= capacity;
+    }
+
+    /**
+     * Records the size of the queue after an operation, and shrinks the
+     * capacity at the end of a window where the queue stayed mostly empty.
+     *
+     * @param size the number of elements in the queue
+     */
+    public void sample(int size) {
+        if (min == max) {
+            return;
+        }
+        peak = Math.max(peak, size);
+        if (++operations < WINDOW) {
+            return;
+        }
+        if (peak < capacity / 4 && capacity > min) {
+            resize(Math.max(min, capacity / 2));
+        }
+        operations = 0;
+        peak = 0;
+    }
+
+    private void resize(int newCapacity) {
+        capacity = newCapacity;
+        resizes.record(newCapacity);
+        operations = 0;
+        peak = 0;
+    }
+}
@@ -0,0 +1,152 @@
+package Overflow;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.function.BooleanSupplier;
+
+/**
+ * What a bounded queue does with an element added while it is full, chosen
+ * with {@code -Doverflow=block|timeout|drop-newest|drop-oldest|caller-runs}.
+ * <p>
+ * The queue calls {@link #awaitRoom(Condition, BooleanSupplier)} with its
+ * lock held, and acts on the returned {@link Outcome}: add the element, first
+ * drop the oldest one, or reject the new one. A rejected element is dropped,
+ * except with {@link #CALLER_RUNS}, where the producer handles the element
+ * itself once it has released the lock, as a consumer would.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Waits until there is room: no element is ever lost, but a burst of
+     * producers stalls on a small queue.
+     */
+    BLOCK {
+        @Override
+        public Outcome awaitRoom(Condition notFull, BooleanSupplier full) throws InterruptedException {
+            while (full.getAsBoolean()) {
+                notFull.await();
+            }
+            return Outcome.ADD;
+        }
+    },
+
+    /**
+     * Waits at most {@code -Doverflow.timeout} milliseconds (100 by default)
+     * for room, then drops the new element.
+     */
+    BLOCK_TIMEOUT {
+        @Override
+        public Outcome awaitRoom(Condition notFull, BooleanSupplier full) throws InterruptedException {
+            long nanos = TIMEOUT_NANOS;
+            while (full.getAsBoolean()) {
+                if (nanos <= 0) {
+                    return Outcome.REJECT;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return Outcome.ADD;
+        }
+    },
+
+    /**
+     * Drops the new element: the queue keeps the oldest ones.
+     */
+    DROP_NEWEST {
+        @Override
+        public Outcome awaitRoom(Condition notFull, BooleanSupplier full) {
+            return full.getAsBoolean() ? Outcome.REJECT : Outcome.ADD;
+        }
+    },
+
+    /**
+     * Drops the oldest element to make room: the queue keeps the freshest
+     * ones.
+     */
+    DROP_OLDEST {
+        @Override
+        public Outcome awaitRoom(Condition notFull, BooleanSupplier full) {
+            return full.getAsBoolean() ? Outcome.DROP_OLDEST : Outcome.ADD;
+        }
+    },
+
+    /**
+     * Hands the new element back to the producer, which handles it itself:
+     * the producers slow down to the pace of the consumers without waiting.
+     */
+    CALLER_RUNS {
+        @Override
+        public Outcome awaitRoom(Condition notFull, BooleanSupplier full) {
+            return full.getAsBoolean() ? Outcome.REJECT : Outcome.ADD;
+        }
+    };
+
+    /**
+     * The longest wait of {@link #BLOCK_TIMEOUT}, set in milliseconds with
+     * {@code -Doverflow.timeout}.
+     */
+    public static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("overflow.timeout", 100));
+
+    /**
+     * What the queue must do with the new element.
+     */
+    public enum Outcome {
+
+        /**
+         * Add it: there is room.
+         */
+        ADD,
+
+        /**
+         * Remove the oldest element, then add it.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Do not add it: drop it, or let the producer handle it with
+         * {@link OverflowPolicy#CALLER_RUNS}.
+         */
+        REJECT
+    }
+
+    /**
+     * Waits, if the policy says so, while the queue is full. Called with the
+     * lock of the condition held.
+     *
+     * @param notFull the condition signaled when an element is removed
+     * @param full    tells whether the queue is full
+     * @return what to do with the new element
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public abstract Outcome awaitRoom(Condition notFull, BooleanSupplier full) throws InterruptedException;
+
+    /**
+     * Returns the policy set with {@code -Doverflow}, {@link #BLOCK} by
+     * default.
+     *
+     * @return the policy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static OverflowPolicy fromProperty() {
+        return parse(System.getProperty("overflow", "block"));
+    }
+
+    /**
+     * Returns the policy of the given name.
+     *
+     * @param name one of {@code block}, {@code timeout}, {@code drop-newest},
+     *             {@code drop-oldest} or {@code caller-runs}
+     * @return the policy
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static OverflowPolicy parse(String name) {
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "block" -> BLOCK;
+            case "timeout" -> BLOCK_TIMEOUT;
+            case "drop-newest" -> DROP_NEWEST;
+            case "drop-oldest" -> DROP_OLDEST;
+            case "caller-runs" -> CALLER_RUNS;
+            default -> throw new IllegalArgumentException("Unknown overflow policy: " + name);
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package Threads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The kind of threads running the tasks of the exercises, and the report of
+ * their footprint.
+ * <p>
+ * With {@code -Dthreads=virtual}, the executors run each task on its own
+ * virtual thread; otherwise they are cached pools of platform threads. The
+ * number of tasks the drivers submit is set with {@code -Dtasks=n}, each
+ * driver having its own default.
+ */
+public final class Threads {
+
+    /**
+     * Whether the tasks run on virtual threads ({@code -Dthreads=virtual})
+     * rather than on platform threads.
+     */
+    public static final boolean VIRTUAL = "virtual".equals(System.getProperty("threads"));
+
+    private Threads() {
+    }
+
+    /**
+     * Returns the number of tasks set with {@code -Dtasks=n}.
+     *
+     * @param defaultTasks the number used when the property is not set
+     * @return the number of tasks
+     */
+    public static int tasks(int defaultTasks) {
+        return Integer.getInteger("tasks", defaultTasks);
+    }
+
+    /**
+     * Creates an executor running tasks: one virtual thread per task with
+     * {@code -Dthreads=virtual}, otherwise a cached pool of platform threads.
+     *
+     * @return the new executor
+     */
+    public static ExecutorService newExecutor() {
+        return VIRTUAL ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Prints the kind of threads used, the elapsed time, the peak number of
+     * live platform threads and the peak heap usage, to compare the footprint
+     * of the two kinds of threads.
+     *
+     * @param start the start time, from System.nanoTime()
+     */
+    public static void printFootprint(long start) {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%s threads: %d ms, peak %d platform threads, peak heap %d MB%n",
+                VIRTUAL ? "Virtual" : "Platform", (System.nanoTime() - start) / 1_000_000,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), peakHeap >> 20);
+    }
+}